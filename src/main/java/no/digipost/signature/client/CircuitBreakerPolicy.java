@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client;
+
+import no.digipost.signature.client.core.CircuitState;
+import no.digipost.signature.client.core.Operation;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static no.digipost.signature.client.core.Operation.CREATE;
+
+/**
+ * When to stop sending requests for an {@link Operation} to the Signature service, because it appears to be
+ * unavailable or degraded. Each operation has its own circuit breaker, which {@link CircuitState#OPEN opens}
+ * after a number of consecutive requests fail because of I/O errors or errors on the server, or are slower than
+ * a threshold. While open, requests fail immediately, and after the open duration, a single probing request
+ * is permitted to determine if the circuit should be {@link CircuitState#CLOSED closed} again.
+ * <p>
+ * The time used to {@link Operation#CREATE create} a job includes uploading its documents, and depends as
+ * much on the size of the documents and the bandwidth of the client as on the health of the service, so
+ * slow requests to create jobs do not count as failures unless a threshold is
+ * {@link Builder#slowRequestThreshold(Operation, Duration) explicitly given} for creating jobs.
+ *
+ * @see ClientConfiguration.Builder#circuitBreaker(CircuitBreakerPolicy)
+ */
+public final class CircuitBreakerPolicy {
+
+    /**
+     * Never open the circuit.
+     */
+    public static final CircuitBreakerPolicy NONE = new CircuitBreakerPolicy(0, Collections.emptyMap(), Duration.ZERO);
+
+    /**
+     * Build a circuit breaker policy, which by default opens the circuit for 30 s after 5 consecutive
+     * failed requests, or requests taking more than 5 s, except requests to create jobs.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final int consecutiveFailures;
+    private final Map<Operation, Duration> slowRequestThresholds;
+    private final Duration openDuration;
+
+    private CircuitBreakerPolicy(int consecutiveFailures, Map<Operation, Duration> slowRequestThresholds, Duration openDuration) {
+        this.consecutiveFailures = consecutiveFailures;
+        this.slowRequestThresholds = slowRequestThresholds;
+        this.openDuration = openDuration;
+    }
+
+    public boolean isEnabled() {
+        return consecutiveFailures > 0;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return the duration after which successful requests for the operation are counted as failed,
+     *         or empty if slow requests for the operation are not counted as failed.
+     */
+    public Optional<Duration> getSlowRequestThreshold(Operation operation) {
+        return Optional.ofNullable(slowRequestThresholds.get(operation));
+    }
+
+    public Duration getOpenDuration() {
+        return openDuration;
+    }
+
+    @Override
+    public String toString() {
+        return !isEnabled() ? "no circuit breaker" : "open circuit for " + openDuration + " after " + consecutiveFailures +
+                " consecutive failed requests, or requests slower than " + slowRequestThresholds;
+    }
+
+
+    public static final class Builder {
+
+        private int consecutiveFailures = 5;
+        private final Map<Operation, Duration> slowRequestThresholds = new EnumMap<>(Operation.class);
+        private Duration openDuration = Duration.ofSeconds(30);
+
+        private Builder() {
+            slowRequestThreshold(Duration.ofSeconds(5));
+        }
+
+        /**
+         * @param consecutiveFailures the number of consecutive failed or slow requests which opens the circuit.
+         */
+        public Builder openAfter(int consecutiveFailures) {
+            if (consecutiveFailures < 1) {
+                throw new IllegalArgumentException("Consecutive failures must be positive, but was " + consecutiveFailures);
+            }
+            this.consecutiveFailures = consecutiveFailures;
+            return this;
+        }
+
+        /**
+         * @param slowRequestThreshold successful requests taking longer than this are counted as failed,
+         *                             for all operations except {@link Operation#CREATE creating jobs}.
+         */
+        public Builder slowRequestThreshold(Duration slowRequestThreshold) {
+            for (Operation operation : Operation.values()) {
+                if (operation != CREATE) {
+                    slowRequestThresholds.put(operation, slowRequestThreshold);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @param slowRequestThreshold successful requests for the given operation taking longer than this
+         *                             are counted as failed.
+         */
+        public Builder slowRequestThreshold(Operation operation, Duration slowRequestThreshold) {
+            slowRequestThresholds.put(operation, slowRequestThreshold);
+            return this;
+        }
+
+        /**
+         * @param openDuration how long the circuit stays open before a probing request is permitted.
+         */
+        public Builder openDuration(Duration openDuration) {
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        public CircuitBreakerPolicy build() {
+            return new CircuitBreakerPolicy(consecutiveFailures, Collections.unmodifiableMap(new EnumMap<>(slowRequestThresholds)), openDuration);
+        }
+    }
+
+}
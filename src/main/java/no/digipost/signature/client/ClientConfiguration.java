@@ -16,8 +16,13 @@
 package no.digipost.signature.client;
 
 import no.digipost.signature.client.asice.ASiCEConfiguration;
+import no.digipost.signature.client.asice.DocumentBundleProcessing;
 import no.digipost.signature.client.asice.DocumentBundleProcessor;
+import no.digipost.signature.client.asice.DocumentCache;
+import no.digipost.signature.client.asice.DocumentCompression;
 import no.digipost.signature.client.asice.DumpDocumentBundleToDisk;
+import no.digipost.signature.client.asice.archive.DeflateCompressor;
+import no.digipost.signature.client.core.Operation;
 import no.digipost.signature.client.core.Sender;
 import no.digipost.signature.client.core.SignatureJob;
 import no.digipost.signature.client.core.exceptions.KeyException;
@@ -34,6 +39,7 @@ import org.apache.http.ssl.PrivateKeyStrategy;
 import org.apache.http.ssl.SSLContexts;
 import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
 import org.glassfish.jersey.filter.LoggingFilter;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
 import org.slf4j.Logger;
@@ -52,12 +58,16 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.time.Clock;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Consumer;
+import java.util.zip.Deflater;
 
 import static java.util.Arrays.asList;
 import static javax.ws.rs.core.HttpHeaders.USER_AGENT;
@@ -95,6 +105,18 @@ public final class ClientConfiguration implements ProvidesCertificateResourcePat
      */
     public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10_000;
 
+    /**
+     * The default maximum number of confirmations sent concurrently in the background:
+     * {@value #DEFAULT_CONFIRMATION_PARALLELISM}.
+     */
+    public static final int DEFAULT_CONFIRMATION_PARALLELISM = 4;
+
+    /**
+     * The default time to wait for requests in progress and queued confirmations when closing a
+     * client: {@value #DEFAULT_SHUTDOWN_TIMEOUT_MS} ms.
+     */
+    public static final int DEFAULT_SHUTDOWN_TIMEOUT_MS = 30_000;
+
 
 
     private final Configurable<? extends Configuration> jaxrsConfig;
@@ -104,14 +126,38 @@ public final class ClientConfiguration implements ProvidesCertificateResourcePat
     private final Optional<Sender> sender;
     private final URI signatureServiceRoot;
     private final Iterable<DocumentBundleProcessor> documentBundleProcessors;
+    private final DocumentBundleProcessing documentBundleProcessing;
     private final Clock clock;
-
+    private final int confirmationParallelism;
+    private final Optional<Path> pendingConfirmationsJournal;
+    private final Optional<DocumentCache> documentCache;
+    private final DocumentCompression documentCompression;
+    private final int compressionLevel;
+    private final DeflateCompressor deflateCompressor;
+    private final RequestLimits requestLimits;
+    private final Map<String, RequestLimits> senderRequestLimits;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreakerPolicy circuitBreakerPolicy;
+    private final Map<Operation, Duration> operationTimeouts;
+    private final HedgingPolicy hedgingPolicy;
+    private final int statusCacheSize;
+    private final Duration statusCacheTimeToLive;
+    private final boolean coalesceRequests;
+    private final boolean validateRequests;
+
+    private volatile SSLContext sslContext;
 
 
     private ClientConfiguration(
             KeyStoreConfig keyStoreConfig, Configurable<? extends Configuration> jaxrsConfig,
             Optional<Sender> sender, URI serviceRoot, Iterable<String> certificatePaths,
-            Iterable<DocumentBundleProcessor> documentBundleProcessors, Clock clock) {
+            Iterable<DocumentBundleProcessor> documentBundleProcessors, DocumentBundleProcessing documentBundleProcessing, Clock clock,
+            int confirmationParallelism, Optional<Path> pendingConfirmationsJournal,
+            Optional<DocumentCache> documentCache, DocumentCompression documentCompression,
+            int compressionLevel, DeflateCompressor deflateCompressor,
+            RequestLimits requestLimits, Map<String, RequestLimits> senderRequestLimits, RetryPolicy retryPolicy,
+            CircuitBreakerPolicy circuitBreakerPolicy, Map<Operation, Duration> operationTimeouts, HedgingPolicy hedgingPolicy,
+            int statusCacheSize, Duration statusCacheTimeToLive, boolean coalesceRequests, boolean validateRequests) {
 
         this.keyStoreConfig = keyStoreConfig;
         this.jaxrsConfig = jaxrsConfig;
@@ -119,7 +165,24 @@ public final class ClientConfiguration implements ProvidesCertificateResourcePat
         this.signatureServiceRoot = serviceRoot;
         this.certificatePaths = certificatePaths;
         this.documentBundleProcessors = documentBundleProcessors;
+        this.documentBundleProcessing = documentBundleProcessing;
         this.clock = clock;
+        this.confirmationParallelism = confirmationParallelism;
+        this.pendingConfirmationsJournal = pendingConfirmationsJournal;
+        this.documentCache = documentCache;
+        this.documentCompression = documentCompression;
+        this.compressionLevel = compressionLevel;
+        this.deflateCompressor = deflateCompressor;
+        this.requestLimits = requestLimits;
+        this.senderRequestLimits = senderRequestLimits;
+        this.retryPolicy = retryPolicy;
+        this.circuitBreakerPolicy = circuitBreakerPolicy;
+        this.operationTimeouts = operationTimeouts;
+        this.hedgingPolicy = hedgingPolicy;
+        this.statusCacheSize = statusCacheSize;
+        this.statusCacheTimeToLive = statusCacheTimeToLive;
+        this.coalesceRequests = coalesceRequests;
+        this.validateRequests = validateRequests;
     }
 
 
@@ -139,12 +202,118 @@ public final class ClientConfiguration implements ProvidesCertificateResourcePat
         return documentBundleProcessors;
     }
 
+    @Override
+    public DocumentBundleProcessing getDocumentBundleProcessing() {
+        return documentBundleProcessing;
+    }
+
     @Override
     public Clock getClock() {
         return clock;
     }
 
 
+    @Override
+    public Optional<DocumentCache> getDocumentCache() {
+        return documentCache;
+    }
+
+    @Override
+    public DocumentCompression getDocumentCompression() {
+        return documentCompression;
+    }
+
+    @Override
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    @Override
+    public DeflateCompressor getDeflateCompressor() {
+        return deflateCompressor;
+    }
+
+    /**
+     * @return the maximum number of confirmations sent concurrently in the background.
+     */
+    public int getConfirmationParallelism() {
+        return confirmationParallelism;
+    }
+
+    /**
+     * @return the file used to persist confirmations which are queued to be sent in the background,
+     *         if configured.
+     */
+    public Optional<Path> getPendingConfirmationsJournal() {
+        return pendingConfirmationsJournal;
+    }
+
+    /**
+     * @return the limits for requests creating jobs and polling for status changes on behalf of the
+     *         given sender.
+     */
+    public RequestLimits getRequestLimits(Sender sender) {
+        return senderRequestLimits.getOrDefault(sender.getOrganizationNumber(), requestLimits);
+    }
+
+    /**
+     * @return how failed requests are retried.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @return when to stop sending requests because the Signature service appears to be unavailable.
+     */
+    public CircuitBreakerPolicy getCircuitBreakerPolicy() {
+        return circuitBreakerPolicy;
+    }
+
+    /**
+     * @return how slow requests are hedged.
+     */
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * @return the maximum number of statuses retrieved by status URL to cache, {@code 0} if statuses are not cached.
+     */
+    public int getStatusCacheSize() {
+        return statusCacheSize;
+    }
+
+    /**
+     * @return how long a cached status is used without being revalidated with the Signature service.
+     */
+    public Duration getStatusCacheTimeToLive() {
+        return statusCacheTimeToLive;
+    }
+
+    /**
+     * @return {@code true} if concurrent identical requests for statuses and signed documents share one request.
+     */
+    public boolean isCoalescingRequests() {
+        return coalesceRequests;
+    }
+
+    /**
+     * @return {@code true} if requests to create signature jobs are validated against the schema of the Signature API
+     *         before they are sent.
+     */
+    public boolean isValidatingRequests() {
+        return validateRequests;
+    }
+
+    /**
+     * @return the socket timeout for requests performing the given operation, if it overrides the
+     *         {@link Builder#socketTimeoutMillis(int) socket timeout} of the client.
+     */
+    public Optional<Duration> getTimeout(Operation operation) {
+        return Optional.ofNullable(operationTimeouts.get(operation));
+    }
+
     @Override
     public URI getServiceRoot() {
         return signatureServiceRoot;
@@ -167,8 +336,27 @@ public final class ClientConfiguration implements ProvidesCertificateResourcePat
     }
 
 
+    /**
+     * Get the {@link SSLContext} with the configured key and trusted certificates. The context is created
+     * the first time it is requested, and the same context is shared by all clients created with
+     * this {@link ClientConfiguration}.
+     */
     @Override
     public SSLContext getSSLContext() {
+        SSLContext context = sslContext;
+        if (context == null) {
+            synchronized (this) {
+                context = sslContext;
+                if (context == null) {
+                    context = createSSLContext();
+                    sslContext = context;
+                }
+            }
+        }
+        return context;
+    }
+
+    private SSLContext createSSLContext() {
         try {
         return SSLContexts.custom()
                 .loadKeyMaterial(keyStoreConfig.keyStore, keyStoreConfig.privatekeyPassword.toCharArray(), new PrivateKeyStrategy() {
@@ -213,7 +401,24 @@ public final class ClientConfiguration implements ProvidesCertificateResourcePat
         private Iterable<String> certificatePaths = Certificates.PRODUCTION.certificatePaths;
         private Optional<LoggingFilter> loggingFilter = Optional.empty();
         private List<DocumentBundleProcessor> documentBundleProcessors = new ArrayList<>();
+        private DocumentBundleProcessing documentBundleProcessing = DocumentBundleProcessing.inSequence();
         private Clock clock = Clock.systemDefaultZone();
+        private int confirmationParallelism = DEFAULT_CONFIRMATION_PARALLELISM;
+        private Optional<Path> pendingConfirmationsJournal = Optional.empty();
+        private Optional<DocumentCache> documentCache = Optional.empty();
+        private DocumentCompression documentCompression = DocumentCompression.DEFLATE;
+        private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+        private Optional<DeflateCompressor> deflateCompressor = Optional.empty();
+        private RequestLimits requestLimits = RequestLimits.NONE;
+        private Map<String, RequestLimits> senderRequestLimits = new HashMap<>();
+        private RetryPolicy retryPolicy = RetryPolicy.NONE;
+        private CircuitBreakerPolicy circuitBreakerPolicy = CircuitBreakerPolicy.NONE;
+        private Map<Operation, Duration> operationTimeouts = new EnumMap<>(Operation.class);
+        private HedgingPolicy hedgingPolicy = HedgingPolicy.NONE;
+        private int statusCacheSize = 0;
+        private Duration statusCacheTimeToLive = Duration.ZERO;
+        private boolean coalesceRequests = false;
+        private boolean validateRequests = false;
 
 
         private Builder(KeyStoreConfig keyStoreConfig) {
@@ -254,6 +459,21 @@ public final class ClientConfiguration implements ProvidesCertificateResourcePat
             return this;
         }
 
+        /**
+         * Override the {@link #socketTimeoutMillis(int) socket timeout} for requests performing the given
+         * operation, e.g. to allow slow {@link Operation#DOWNLOAD downloads} of large signed documents
+         * while keeping {@link Operation#STATUS status} requests short.
+         *
+         * @param socketTimeout the timeout, which must be positive
+         */
+        public Builder timeout(Operation operation, Duration socketTimeout) {
+            if (socketTimeout == null || socketTimeout.isZero() || socketTimeout.isNegative()) {
+                throw new IllegalArgumentException("Timeout for " + operation + " must be positive, but was " + socketTimeout);
+            }
+            this.operationTimeouts.put(operation, socketTimeout);
+            return this;
+        }
+
         public Builder trustStore(Certificates certificates) {
             if (certificates == TEST) {
                 LOG.warn("Using test certificates in trust store. This should never be done for production environments.");
@@ -350,6 +570,20 @@ public final class ClientConfiguration implements ProvidesCertificateResourcePat
             return this;
         }
 
+        /**
+         * Specify how the {@link #addDocumentBundleProcessor(DocumentBundleProcessor) document bundle processors}
+         * are run. By default they are run {@link DocumentBundleProcessing#inSequence() in sequence} on the
+         * thread creating each signature job, which adds the processing time of all processors to the time
+         * used to create the job. Processors may instead be run concurrently on an executor, either
+         * {@link DocumentBundleProcessing#concurrentlyBeforeSending(java.util.concurrent.Executor) before}, or
+         * {@link DocumentBundleProcessing#concurrentlyAfterSending(java.util.concurrent.Executor, java.util.function.BiConsumer) after}
+         * the job is sent.
+         */
+        public Builder documentBundleProcessing(DocumentBundleProcessing processing) {
+            this.documentBundleProcessing = processing;
+            return this;
+        }
+
         /**
          * This methods allows for custom configuration of JAX-RS (i.e. Jersey) if anything is
          * needed that is not already supported by the {@link ClientConfiguration.Builder}.
@@ -378,14 +612,187 @@ public final class ClientConfiguration implements ProvidesCertificateResourcePat
             return this;
         }
 
+        /**
+         * Set the maximum number of confirmations to send concurrently when confirming statuses
+         * in the background, e.g. using {@code confirmAsync} on the clients. The default is
+         * {@value ClientConfiguration#DEFAULT_CONFIRMATION_PARALLELISM}.
+         */
+        public Builder confirmationParallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Confirmation parallelism must be at least 1, but was " + parallelism);
+            }
+            this.confirmationParallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Persist confirmations queued to be sent in the background to the given file, until they are sent.
+         * Confirmations which were not sent when the application terminated, will be sent when a client
+         * is created with the same file.
+         *
+         * @param journal the file to persist pending confirmations in. It is created if it does not exist.
+         */
+        public Builder persistPendingConfirmations(Path journal) {
+            this.pendingConfirmationsJournal = Optional.of(journal);
+            return this;
+        }
+
+        /**
+         * Cache the digest and compressed content of documents, so that creating signature jobs with a
+         * document which has been used for previous jobs does not need to process the document again.
+         * This is useful when the same documents, e.g. standard agreements, are sent to many signers.
+         * See {@link DocumentCache}.
+         * <p>
+         * The content of a document must not be modified after it has been given to a job.
+         *
+         * @param maxCompressedBytes the maximum total size of compressed documents kept in the cache.
+         *                           The least recently used documents are evicted when exceeded.
+         */
+        public Builder cacheDocuments(long maxCompressedBytes) {
+            this.documentCache = Optional.of(DocumentCache.withCapacity(maxCompressedBytes));
+            return this;
+        }
+
+        /**
+         * Set how documents are compressed in the document bundles. Documents are
+         * {@link DocumentCompression#DEFLATE deflated} if not specified, but as PDFs usually are
+         * compressed already, {@link DocumentCompression#STORED storing} or
+         * {@link DocumentCompression#ADAPTIVE adaptively} compressing them saves processing time
+         * when creating signature jobs.
+         */
+        public Builder documentCompression(DocumentCompression documentCompression) {
+            this.documentCompression = documentCompression;
+            return this;
+        }
+
+        /**
+         * Set the compression level used when deflating the files of the document bundles, from
+         * {@link Deflater#NO_COMPRESSION 0} to {@link Deflater#BEST_COMPRESSION 9}. Lower levels
+         * are faster, and higher levels produce smaller document bundles. The
+         * {@link Deflater#DEFAULT_COMPRESSION default level} is used if not specified.
+         */
+        public Builder compressionLevel(int level) {
+            if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("Compression level must be from 0 to 9, or -1 for the default level, but was " + level);
+            }
+            this.compressionLevel = level;
+            return this;
+        }
+
+        /**
+         * Set the implementation used to deflate the files of the document bundles. If not specified,
+         * a compressor {@link DeflateCompressor registered as a service} is used if available, and
+         * otherwise {@link Deflater}.
+         */
+        public Builder deflateCompressor(DeflateCompressor compressor) {
+            this.deflateCompressor = Optional.of(compressor);
+            return this;
+        }
+
+        /**
+         * Limit the requests for creating jobs and polling for status changes, to avoid overloading
+         * the Signature service when sending many jobs at once. The limits apply separately for
+         * direct and portal jobs, and for each sender. See {@link RequestLimits}.
+         */
+        public Builder limitRequests(RequestLimits limits) {
+            this.requestLimits = limits;
+            return this;
+        }
+
+        /**
+         * Limit the requests for creating jobs and polling for status changes on behalf of a particular
+         * sender, instead of the limits given by {@link #limitRequests(RequestLimits)}.
+         */
+        public Builder limitRequests(Sender sender, RequestLimits limits) {
+            this.senderRequestLimits.put(sender.getOrganizationNumber(), limits);
+            return this;
+        }
+
+        /**
+         * Retry requests failing because of I/O errors or errors on the server, according to the given
+         * policy. Requests are not retried if not specified. See {@link RetryPolicy}.
+         */
+        public Builder retry(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Stop sending requests for an operation when the Signature service appears to be unavailable or degraded,
+         * to fail fast instead of waiting for requests to time out. There is no circuit breaker if not specified.
+         * See {@link CircuitBreakerPolicy}.
+         */
+        public Builder circuitBreaker(CircuitBreakerPolicy circuitBreakerPolicy) {
+            this.circuitBreakerPolicy = circuitBreakerPolicy;
+            return this;
+        }
+
+        /**
+         * Send a second request for slow {@link Operation#isIdempotent() idempotent} operations, and use the
+         * response which arrives first, to cut the tail latency of e.g. status requests. Requests are not
+         * hedged if not specified. See {@link HedgingPolicy}.
+         */
+        public Builder hedge(HedgingPolicy hedgingPolicy) {
+            this.hedgingPolicy = hedgingPolicy;
+            return this;
+        }
+
+        /**
+         * Cache statuses retrieved by {@link no.digipost.signature.client.direct.DirectClient#getStatus(no.digipost.signature.client.direct.StatusReference)
+         * status URL}, e.g. when the status of the same job is requested repeatedly while the signer waits for the
+         * signing to complete. A cached status is used for the given time to live, and then revalidated with a conditional
+         * request if the service provided an {@code ETag} for it. A status is removed from the cache when it is
+         * {@link no.digipost.signature.client.direct.DirectClient#confirm(no.digipost.signature.client.direct.DirectJobStatusResponse) confirmed}.
+         * Statuses are not cached if not specified.
+         *
+         * @param maxEntries the maximum number of statuses to cache, where the least recently used status is evicted
+         *                   when the cache is full.
+         * @param timeToLive how long a cached status is used without being revalidated.
+         */
+        public Builder cacheStatuses(int maxEntries, Duration timeToLive) {
+            if (maxEntries < 0 || timeToLive.isNegative()) {
+                throw new IllegalArgumentException("Status cache size and time to live can not be negative, but was " + maxEntries + " and " + timeToLive);
+            }
+            this.statusCacheSize = maxEntries;
+            this.statusCacheTimeToLive = timeToLive;
+            return this;
+        }
+
+        /**
+         * Let concurrent identical requests for the {@link no.digipost.signature.client.direct.DirectClient#getStatus(no.digipost.signature.client.direct.StatusReference)
+         * status of a job} or for a signed document share one request to the Signature service, instead of each
+         * sending its own. A shared signed document is downloaded to a temporary file, which each caller gets its own
+         * stream of, and which is deleted when all the streams are closed.
+         */
+        public Builder coalesceRequests() {
+            this.coalesceRequests = true;
+            return this;
+        }
+
+        /**
+         * Validate the XML of requests to create signature jobs against the schema of the Signature API before
+         * sending them, e.g. when debugging a request rejected by the service. The requests are otherwise marshalled
+         * without validation, as the service validates them regardless.
+         */
+        public Builder validateRequests() {
+            this.validateRequests = true;
+            return this;
+        }
+
         public ClientConfiguration build() {
             jaxrsConfig.property(ClientProperties.READ_TIMEOUT, socketTimeoutMs);
             jaxrsConfig.property(ClientProperties.CONNECT_TIMEOUT, connectTimeoutMs);
+            jaxrsConfig.property(HttpUrlConnectorProvider.USE_FIXED_LENGTH_STREAMING, true);
             jaxrsConfig.register(MultiPartFeature.class);
             jaxrsConfig.register(JaxbMessageReaderWriterProvider.class);
             jaxrsConfig.register(new AddRequestHeaderFilter(USER_AGENT, createUserAgentString()));
             this.loggingFilter.ifPresent(jaxrsConfig::register);
-            return new ClientConfiguration(keyStoreConfig, jaxrsConfig, globalSender, serviceRoot, certificatePaths, documentBundleProcessors, clock);
+            return new ClientConfiguration(keyStoreConfig, jaxrsConfig, globalSender, serviceRoot, certificatePaths, documentBundleProcessors, documentBundleProcessing, clock,
+                    confirmationParallelism, pendingConfirmationsJournal, documentCache, documentCompression,
+                    compressionLevel, deflateCompressor.orElseGet(DeflateCompressor::available),
+                    requestLimits, new HashMap<>(senderRequestLimits), retryPolicy,
+                    circuitBreakerPolicy, new EnumMap<>(operationTimeouts), hedgingPolicy,
+                    statusCacheSize, statusCacheTimeToLive, coalesceRequests, validateRequests);
         }
 
         String createUserAgentString() {
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client;
+
+import no.digipost.signature.client.core.Operation;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static no.digipost.signature.client.core.Operation.DOWNLOAD;
+import static no.digipost.signature.client.core.Operation.STATUS;
+
+/**
+ * How requests to the Signature service are hedged, to cut the tail latency: if a request has not
+ * completed within a delay, derived from a percentile of the latencies recently observed for the
+ * operation, a second identical request is sent, and the response which arrives first is used. The
+ * other response is discarded when it arrives, and if it is a stream of a signed document, it is closed.
+ * <p>
+ * Only {@link Operation#STATUS status} requests and {@link Operation#DOWNLOAD downloads} may be hedged. Other
+ * operations either change state on the service, or, as for {@link Operation#POLL polling}, consume what they
+ * receive, so that the discarded response would be lost until the service delivers it again. The extra requests are
+ * limited by a budget: each operation adds a fraction of a hedged request to the budget, and each hedged
+ * request spends one, so the hedged requests only add a bounded fraction of extra load on the service.
+ *
+ * @see ClientConfiguration.Builder#hedge(HedgingPolicy)
+ */
+public final class HedgingPolicy {
+
+    /**
+     * Never hedge requests.
+     */
+    public static final HedgingPolicy NONE = new HedgingPolicy(Collections.emptySet(), 0, Duration.ZERO, 0);
+
+    /**
+     * Build a hedging policy, which by default hedges {@link Operation#STATUS status} requests and
+     * {@link Operation#DOWNLOAD downloads} of signed documents after the 95th percentile of their latencies,
+     * or after 1 second until enough latencies have been observed, adding at most 5 % extra requests.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private static final Set<Operation> HEDGEABLE = Collections.unmodifiableSet(EnumSet.of(STATUS, DOWNLOAD));
+
+    private final Set<Operation> operations;
+    private final double delayPercentile;
+    private final Duration initialDelay;
+    private final double maxExtraLoad;
+
+    private HedgingPolicy(Set<Operation> operations, double delayPercentile, Duration initialDelay, double maxExtraLoad) {
+        this.operations = operations;
+        this.delayPercentile = delayPercentile;
+        this.initialDelay = initialDelay;
+        this.maxExtraLoad = maxExtraLoad;
+    }
+
+    public boolean hedges(Operation operation) {
+        return operations.contains(operation);
+    }
+
+    public double getDelayPercentile() {
+        return delayPercentile;
+    }
+
+    public Duration getInitialDelay() {
+        return initialDelay;
+    }
+
+    public double getMaxExtraLoad() {
+        return maxExtraLoad;
+    }
+
+    @Override
+    public String toString() {
+        return operations.isEmpty() ? "no hedging" : "hedging " + operations + " after the " + delayPercentile + " percentile of latencies" +
+                ", adding at most " + Math.round(maxExtraLoad * 100) + " % extra requests";
+    }
+
+
+    public static final class Builder {
+
+        private Set<Operation> operations = EnumSet.of(STATUS, DOWNLOAD);
+        private double delayPercentile = 95;
+        private Duration initialDelay = Duration.ofSeconds(1);
+        private double maxExtraLoad = 0.05;
+
+        private Builder() {
+        }
+
+        /**
+         * @param operations the operations to hedge, which must be {@link Operation#STATUS} or {@link Operation#DOWNLOAD}.
+         */
+        public Builder operations(Operation first, Operation ... more) {
+            Set<Operation> operations = EnumSet.of(first, more);
+            for (Operation operation : operations) {
+                if (!HEDGEABLE.contains(operation)) {
+                    throw new IllegalArgumentException(operation + " can not be hedged, only " + HEDGEABLE);
+                }
+            }
+            this.operations = operations;
+            return this;
+        }
+
+        /**
+         * @param percentile the percentile of recently observed latencies for an operation to wait before
+         *                   sending a hedged request, e.g. {@code 95} to hedge the slowest 5 % of the requests.
+         */
+        public Builder afterPercentile(double percentile) {
+            if (percentile <= 0 || percentile >= 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100, but was " + percentile);
+            }
+            this.delayPercentile = percentile;
+            return this;
+        }
+
+        /**
+         * @param initialDelay the delay before sending a hedged request until enough latencies have been observed
+         *                     for the operation.
+         */
+        public Builder initialDelay(Duration initialDelay) {
+            if (initialDelay.isNegative()) {
+                throw new IllegalArgumentException("Initial delay can not be negative, but was " + initialDelay);
+            }
+            this.initialDelay = initialDelay;
+            return this;
+        }
+
+        /**
+         * @param ratio the number of hedged requests permitted for each operation performed, e.g. {@code 0.05}
+         *              permits one hedged request for each 20 operations.
+         */
+        public Builder maxExtraLoad(double ratio) {
+            if (ratio < 0) {
+                throw new IllegalArgumentException("Max extra load can not be negative, but was " + ratio);
+            }
+            this.maxExtraLoad = ratio;
+            return this;
+        }
+
+        public HedgingPolicy build() {
+            return new HedgingPolicy(Collections.unmodifiableSet(EnumSet.copyOf(operations)), delayPercentile, initialDelay, maxExtraLoad);
+        }
+    }
+
+}
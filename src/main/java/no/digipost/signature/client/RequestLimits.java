@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client;
+
+import no.digipost.signature.client.core.Sender;
+
+/**
+ * Limits for the requests sent to the Signature service for creating signature jobs and polling for
+ * status changes. Requests are limited separately for creating jobs and for polling, for each kind of job
+ * (direct or portal), and for each {@link Sender}, and may be limited by
+ * <ul>
+ *   <li>a maximum rate, enforced by a token bucket which allows short bursts, and</li>
+ *   <li>an adaptive concurrency limit, which is increased additively while the service responds
+ *       without queueing up, and decreased multiplicatively when the response time increases or the
+ *       service responds with {@code 429 Too Many Requests} or {@code 503 Service Unavailable}.</li>
+ * </ul>
+ * Requests exceeding the limits wait until they are permitted.
+ *
+ * @see ClientConfiguration.Builder#limitRequests(RequestLimits)
+ * @see ClientConfiguration.Builder#limitRequests(Sender, RequestLimits)
+ */
+public final class RequestLimits {
+
+    /**
+     * No limits.
+     */
+    public static final RequestLimits NONE = new RequestLimits(0, 0, 0, 0);
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final double maxRequestsPerSecond;
+    private final int burst;
+    private final int initialConcurrency;
+    private final int maxConcurrency;
+
+    private RequestLimits(double maxRequestsPerSecond, int burst, int initialConcurrency, int maxConcurrency) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this.burst = burst;
+        this.initialConcurrency = initialConcurrency;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public boolean isRateLimited() {
+        return maxRequestsPerSecond > 0;
+    }
+
+    public double getMaxRequestsPerSecond() {
+        return maxRequestsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public boolean isConcurrencyLimited() {
+        return initialConcurrency > 0;
+    }
+
+    public int getInitialConcurrency() {
+        return initialConcurrency;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public String toString() {
+        if (!isRateLimited() && !isConcurrencyLimited()) {
+            return "no request limits";
+        }
+        return "request limits: " +
+                (isRateLimited() ? maxRequestsPerSecond + " requests/s, bursts of " + burst : "no rate limit") + ", " +
+                (isConcurrencyLimited() ? "concurrency from " + initialConcurrency + " up to " + maxConcurrency : "no concurrency limit");
+    }
+
+
+    public static final class Builder {
+
+        private double maxRequestsPerSecond;
+        private int burst;
+        private int initialConcurrency;
+        private int maxConcurrency;
+
+        private Builder() {
+        }
+
+        /**
+         * Limit the rate of requests, allowing bursts of as many requests as are permitted per second.
+         */
+        public Builder maxRequestsPerSecond(double maxRequestsPerSecond) {
+            return maxRequestsPerSecond(maxRequestsPerSecond, (int) Math.max(1, Math.ceil(maxRequestsPerSecond)));
+        }
+
+        /**
+         * Limit the rate of requests.
+         *
+         * @param maxRequestsPerSecond the sustained rate of requests.
+         * @param burst the number of requests which may be sent at once after a period without requests.
+         */
+        public Builder maxRequestsPerSecond(double maxRequestsPerSecond, int burst) {
+            if (maxRequestsPerSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException("Max requests per second and burst must be positive, but was " + maxRequestsPerSecond + " and " + burst);
+            }
+            this.maxRequestsPerSecond = maxRequestsPerSecond;
+            this.burst = burst;
+            return this;
+        }
+
+        /**
+         * Limit the number of concurrent requests adaptively, based on the response times and
+         * responses from the Signature service.
+         *
+         * @param initialConcurrency the number of concurrent requests permitted initially.
+         * @param maxConcurrency the number of concurrent requests the limit will never exceed.
+         */
+        public Builder adaptiveConcurrency(int initialConcurrency, int maxConcurrency) {
+            if (initialConcurrency < 1 || maxConcurrency < initialConcurrency) {
+                throw new IllegalArgumentException(
+                        "Initial concurrency must be positive, and not above max concurrency, but was " + initialConcurrency + " and " + maxConcurrency);
+            }
+            this.initialConcurrency = initialConcurrency;
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        public RequestLimits build() {
+            return new RequestLimits(maxRequestsPerSecond, burst, initialConcurrency, maxConcurrency);
+        }
+    }
+
+}
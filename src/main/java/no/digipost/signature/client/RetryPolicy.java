@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client;
+
+import no.digipost.signature.client.core.Operation;
+
+import java.time.Duration;
+
+/**
+ * How requests to the Signature service failing because of I/O errors or errors on the server are retried.
+ * {@link Operation#isIdempotent() Idempotent operations} are retried regardless of how they failed, while
+ * {@link Operation#CREATE creating} and {@link Operation#CANCEL cancelling} jobs are only retried when it is
+ * known that the request was not processed by the service, i.e. when unable to connect, or when the service
+ * responds with {@code 503 Service Unavailable} or {@code 429 Too Many Requests}.
+ * <p>
+ * Retries are delayed by an exponential backoff with full jitter, and limited by a retry budget: each
+ * operation adds a fraction of a retry to the budget, and each retry spends one, so that when the service
+ * is failing, the retries only add a bounded fraction of extra requests.
+ *
+ * @see ClientConfiguration.Builder#retry(RetryPolicy)
+ */
+public final class RetryPolicy {
+
+    /**
+     * Never retry.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, Duration.ZERO, Duration.ZERO, 0);
+
+    /**
+     * Build a retry policy, which by default makes up to 3 attempts, with backoff from 100 ms up to 5 s,
+     * and a retry budget of 20 % of the operations.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final double retryBudgetRatio;
+
+    private RetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff, double retryBudgetRatio) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.retryBudgetRatio = retryBudgetRatio;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public Duration getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public Duration getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public double getRetryBudgetRatio() {
+        return retryBudgetRatio;
+    }
+
+    @Override
+    public String toString() {
+        return maxAttempts <= 1 ? "no retries" : "up to " + maxAttempts + " attempts, with backoff from " + initialBackoff + " up to " + maxBackoff +
+                ", and a retry budget of " + Math.round(retryBudgetRatio * 100) + " %";
+    }
+
+
+    public static final class Builder {
+
+        private int maxAttempts = 3;
+        private Duration initialBackoff = Duration.ofMillis(100);
+        private Duration maxBackoff = Duration.ofSeconds(5);
+        private double retryBudgetRatio = 0.2;
+
+        private Builder() {
+        }
+
+        /**
+         * @param maxAttempts the maximum number of attempts for each operation, including the first.
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("Max attempts must be at least 1, but was " + maxAttempts);
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param initialBackoff the upper bound for the delay before the first retry, which is doubled for each subsequent retry.
+         * @param maxBackoff the upper bound for the delay before any retry.
+         */
+        public Builder backoff(Duration initialBackoff, Duration maxBackoff) {
+            if (initialBackoff.isNegative() || maxBackoff.compareTo(initialBackoff) < 0) {
+                throw new IllegalArgumentException("Backoff must be positive, and initial backoff not above max backoff, but was " + initialBackoff + " and " + maxBackoff);
+            }
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /**
+         * @param ratio the number of retries permitted for each operation performed, e.g. {@code 0.2} permits
+         *              one retry for each 5 operations, in addition to a small reserve of retries.
+         */
+        public Builder retryBudget(double ratio) {
+            if (ratio < 0) {
+                throw new IllegalArgumentException("Retry budget ratio can not be negative, but was " + ratio);
+            }
+            this.retryBudgetRatio = ratio;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(maxAttempts, initialBackoff, maxBackoff, retryBudgetRatio);
+        }
+    }
+
+}
@@ -20,5 +20,13 @@ public interface ASiCEAttachable {
 
     byte[] getBytes();
 
+    /**
+     * @return the content of the file. Override this to avoid loading the content into memory
+     *         with {@link #getBytes()}.
+     */
+    default DocumentSource getSource() {
+        return DocumentSource.of(getBytes());
+    }
+
     String getMimeType();
 }
@@ -15,11 +15,13 @@
  */
 package no.digipost.signature.client.asice;
 
+import no.digipost.signature.client.asice.archive.DeflateCompressor;
 import no.digipost.signature.client.core.Sender;
 import no.digipost.signature.client.security.KeyStoreConfig;
 
 import java.time.Clock;
 import java.util.Optional;
+import java.util.zip.Deflater;
 
 public interface ASiCEConfiguration {
 
@@ -29,6 +31,42 @@ public interface ASiCEConfiguration {
 
     Iterable<DocumentBundleProcessor> getDocumentBundleProcessors();
 
+    /**
+     * @return how the {@link #getDocumentBundleProcessors() document bundle processors} are run.
+     */
+    default DocumentBundleProcessing getDocumentBundleProcessing() {
+        return DocumentBundleProcessing.inSequence();
+    }
+
     Clock getClock();
 
+    /**
+     * @return the cache for documents included in many signature jobs, if any.
+     */
+    default Optional<DocumentCache> getDocumentCache() {
+        return Optional.empty();
+    }
+
+    /**
+     * @return how the documents of signature jobs are compressed in the document bundle.
+     */
+    default DocumentCompression getDocumentCompression() {
+        return DocumentCompression.DEFLATE;
+    }
+
+    /**
+     * @return the compression level used when deflating the files of the document bundle, from 0 to 9,
+     *         or -1 for the default level.
+     */
+    default int getCompressionLevel() {
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * @return the implementation used to deflate the files of the document bundle.
+     */
+    default DeflateCompressor getDeflateCompressor() {
+        return DeflateCompressor.available();
+    }
+
 }
@@ -0,0 +1,481 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice;
+
+import no.digipost.signature.client.core.SignatureJob;
+import no.digipost.signature.client.core.exceptions.RuntimeIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StreamUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static no.digipost.signature.client.asice.DumpDocumentBundleToDisk.TIMESTAMP_PATTERN;
+import static no.digipost.signature.client.asice.DumpDocumentBundleToDisk.referenceFilenamePart;
+
+/**
+ * A {@link DocumentBundleProcessor} for dumping large volumes of document bundles to disk, e.g. for auditing.
+ * Unlike {@link DumpDocumentBundleToDisk}, the bundles are written by a background thread, so that writing
+ * to disk does not add to the time used to create signature jobs. Bundles are queued in a queue bounded both by
+ * the number of bundles and by their total size, and creating jobs will block if the writer is not able to keep
+ * up and the queue is full.
+ * <p>
+ * The bundles are written to subdirectories for each date and hour, e.g. {@code 2018-01-20/13}. Optionally,
+ * the bundles can be appended to {@link Builder#rollingSegments(long) rolling segment files} in tar format,
+ * instead of being written to a file each, to avoid a very large number of small files, and written
+ * files can be {@link Builder#syncEvery(int) synced to disk in batches}.
+ * <p>
+ * The dump must be {@link #close() closed} to ensure all queued bundles are written.
+ */
+public final class AsyncDocumentBundleDump implements DocumentBundleProcessor, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncDocumentBundleDump.class);
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern(TIMESTAMP_PATTERN);
+    private static final DateTimeFormatter SHARD_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd/HH");
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 256 * 1024 * 1024;
+
+    public static Builder to(Path directory) {
+        return new Builder(directory);
+    }
+
+    public static class Builder {
+
+        private final Path directory;
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        private long maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+        private Optional<Long> maxSegmentSize = Optional.empty();
+        private int syncEvery = 0;
+        private Clock clock = Clock.systemDefaultZone();
+
+        private Builder(Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * The maximum number of document bundles queued to be written, regardless of their size. The default is
+         * {@value AsyncDocumentBundleDump#DEFAULT_QUEUE_CAPACITY}.
+         *
+         * @see #maxQueuedBytes(long)
+         */
+        public Builder queueCapacity(int capacity) {
+            this.queueCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * The maximum total size of the document bundles queued to be written, which are held in memory until
+         * they are written. A bundle larger than this is queued when the queue is empty. The default is
+         * {@value AsyncDocumentBundleDump#DEFAULT_MAX_QUEUED_BYTES} bytes.
+         */
+        public Builder maxQueuedBytes(long maxQueuedBytes) {
+            if (maxQueuedBytes <= 0) {
+                throw new IllegalArgumentException("Max queued bytes must be positive, but was " + maxQueuedBytes);
+            }
+            this.maxQueuedBytes = maxQueuedBytes;
+            return this;
+        }
+
+        /**
+         * Append the document bundles to tar files, starting a new file when a file exceeds the given
+         * size, or when a new hour begins.
+         */
+        public Builder rollingSegments(long maxSegmentBytes) {
+            this.maxSegmentSize = Optional.of(maxSegmentBytes);
+            return this;
+        }
+
+        /**
+         * Sync written files to disk each time the given number of bundles have been written, and when
+         * the queue of bundles to write is empty. By default, written files are not explicitly synced.
+         */
+        public Builder syncEvery(int bundles) {
+            this.syncEvery = bundles;
+            return this;
+        }
+
+        public Builder usingClock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public AsyncDocumentBundleDump build() {
+            return new AsyncDocumentBundleDump(directory, queueCapacity, maxQueuedBytes, maxSegmentSize, syncEvery, clock);
+        }
+    }
+
+
+    private static final Dump CLOSED = new Dump(null, null, 0, null);
+
+    private final Path directory;
+    private final BlockingQueue<Dump> queue;
+    private final long maxQueuedBytes;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final Optional<Long> maxSegmentSize;
+    private final int syncEvery;
+    private final Clock clock;
+    private final Thread writer;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    private final List<Path> unsynced = new ArrayList<>();
+    private Optional<Segment> segment = Optional.empty();
+
+    private AsyncDocumentBundleDump(Path directory, int queueCapacity, long maxQueuedBytes, Optional<Long> maxSegmentSize, int syncEvery, Clock clock) {
+        if (!Files.isDirectory(directory)) {
+            throw new RuntimeIOException(new DumpDocumentBundleToDisk.InvalidDirectoryException(directory));
+        }
+        this.directory = directory;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.maxSegmentSize = maxSegmentSize;
+        this.syncEvery = syncEvery;
+        this.clock = clock;
+        this.writer = new Thread(this::writeQueued, "signature-document-bundle-dump");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void process(SignatureJob job, InputStream documentBundleStream) throws IOException {
+        enqueue(job, ByteBuffer.wrap(StreamUtils.copyToByteArray(documentBundleStream)));
+    }
+
+    @Override
+    public void process(SignatureJob job, ByteBuffer documentBundle) throws IOException {
+        enqueue(job, documentBundle);
+    }
+
+    /**
+     * @return the number of document bundles queued, but not yet written.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of document bundles written.
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return the number of document bundles which failed to be written.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Write all queued document bundles, and stop the background writer. If the closing thread is interrupted
+     * while waiting, this returns before the queued bundles have been written. The background writer then
+     * writes them, and closes its files, on its own.
+     */
+    @Override
+    public void close() {
+        closing.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.put(CLOSED);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            closing.writeLock().unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Bundles are queued while holding the read lock, so that closing, which takes the write lock,
+     * can not put the end of the queue in front of a bundle which has been accepted.
+     */
+    private void enqueue(SignatureJob job, ByteBuffer documentBundle) throws IOException {
+        ZonedDateTime now = ZonedDateTime.now(clock);
+        String filename = TIMESTAMP_FORMAT.format(now) + "-" + Optional.ofNullable(job.getReference()).map(referenceFilenamePart).orElse("") + "asice.zip";
+        closing.readLock().lock();
+        try {
+            if (closed) {
+                throw new IOException("Unable to dump document bundle, as " + getClass().getSimpleName() + " is closed");
+            }
+            int size = documentBundle.remaining();
+            reserve(size);
+            try {
+                queue.put(new Dump(directory.resolve(SHARD_FORMAT.format(now)), filename, now.toEpochSecond(), documentBundle));
+            } catch (InterruptedException e) {
+                release(size);
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queueing document bundle " + filename, e);
+        } finally {
+            closing.readLock().unlock();
+        }
+    }
+
+    private void reserve(int size) throws InterruptedException {
+        synchronized (queuedBytes) {
+            while (queuedBytes.get() > 0 && queuedBytes.get() + size > maxQueuedBytes) {
+                queuedBytes.wait();
+            }
+            queuedBytes.addAndGet(size);
+        }
+    }
+
+    private void release(int size) {
+        synchronized (queuedBytes) {
+            queuedBytes.addAndGet(-size);
+            queuedBytes.notifyAll();
+        }
+    }
+
+    private void writeQueued() {
+        int sinceSync = 0;
+        while (true) {
+            Dump dump;
+            try {
+                dump = queue.poll(100, MILLISECONDS);
+                if (dump == null) {
+                    sinceSync = sync(sinceSync);
+                    if (closed) {
+                        break;
+                    }
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (dump == CLOSED) {
+                break;
+            }
+            int size = dump.documentBundle.remaining();
+            try {
+                write(dump);
+                written.incrementAndGet();
+                sinceSync++;
+                if (syncEvery > 0 && (sinceSync >= syncEvery || queue.isEmpty())) {
+                    sinceSync = sync(sinceSync);
+                }
+            } catch (IOException | RuntimeException e) {
+                failed.incrementAndGet();
+                LOG.warn("Failed to dump document bundle {} to {}: {}: {}", dump.filename, dump.shard, e.getClass().getSimpleName(), e.getMessage());
+            } finally {
+                release(size);
+            }
+        }
+        sync(sinceSync);
+        segment.ifPresent(Segment::close);
+    }
+
+    private void write(Dump dump) throws IOException {
+        Files.createDirectories(dump.shard);
+        if (maxSegmentSize.isPresent()) {
+            Segment current = segment.filter(s -> s.shard.equals(dump.shard) && s.size < maxSegmentSize.get()).orElse(null);
+            if (current == null) {
+                segment.ifPresent(Segment::close);
+                current = new Segment(dump.shard, dump.shard.resolve("segment-" + dump.filename.substring(0, TIMESTAMP_PATTERN.length()) + ".tar"));
+                segment = Optional.of(current);
+            }
+            current.append(dump);
+        } else {
+            Path path = dump.shard.resolve(dump.filename);
+            try (FileChannel file = FileChannel.open(path, CREATE_NEW, WRITE)) {
+                writeFully(file, dump.documentBundle);
+            }
+            if (syncEvery > 0) {
+                unsynced.add(path);
+            }
+        }
+    }
+
+    private int sync(int sinceSync) {
+        if (sinceSync == 0 || syncEvery <= 0) {
+            return sinceSync;
+        }
+        for (Path path : unsynced) {
+            try (FileChannel file = FileChannel.open(path, WRITE)) {
+                file.force(true);
+            } catch (IOException e) {
+                LOG.warn("Failed to sync dumped document bundle: {}: {}", e.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+        unsynced.clear();
+        segment.ifPresent(Segment::sync);
+        return 0;
+    }
+
+    private static void writeFully(FileChannel file, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            file.write(data);
+        }
+    }
+
+
+    private static final class Dump {
+        final Path shard;
+        final String filename;
+        final long createdEpochSeconds;
+        final ByteBuffer documentBundle;
+
+        Dump(Path shard, String filename, long createdEpochSeconds, ByteBuffer documentBundle) {
+            this.shard = shard;
+            this.filename = filename;
+            this.createdEpochSeconds = createdEpochSeconds;
+            this.documentBundle = documentBundle;
+        }
+    }
+
+    /**
+     * A tar file which document bundles are appended to. Names which do not fit in the 100 bytes of
+     * the tar header are given in a preceding pax extended header, as they contain no directory
+     * which could be split into the ustar prefix.
+     */
+    private static final class Segment {
+
+        private static final int BLOCK = 512;
+        private static final int NAME_LENGTH = 100;
+        private static final byte[] PAX_HEADER_NAME = "PaxHeader".getBytes(US_ASCII);
+
+        final Path shard;
+        final Path path;
+        final FileChannel file;
+        long size;
+
+        Segment(Path shard, Path path) throws IOException {
+            this.shard = shard;
+            this.path = path;
+            this.file = FileChannel.open(path, CREATE_NEW, WRITE);
+        }
+
+        void append(Dump dump) throws IOException {
+            byte[] name = dump.filename.getBytes(UTF_8);
+            if (name.length > NAME_LENGTH) {
+                appendEntry(PAX_HEADER_NAME, 'x', dump.createdEpochSeconds, ByteBuffer.wrap(paxRecord("path", name)));
+            }
+            appendEntry(name, '0', dump.createdEpochSeconds, dump.documentBundle);
+        }
+
+        private void appendEntry(byte[] name, char type, long modifiedEpochSeconds, ByteBuffer content) throws IOException {
+            int length = content.remaining();
+            writeFully(file, tarHeader(name, type, length, modifiedEpochSeconds));
+            writeFully(file, content);
+            int padding = (BLOCK - length % BLOCK) % BLOCK;
+            writeFully(file, ByteBuffer.allocate(padding));
+            size += BLOCK + length + padding;
+        }
+
+        void sync() {
+            try {
+                file.force(false);
+            } catch (IOException e) {
+                LOG.warn("Failed to sync {}: {}: {}", path, e.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+
+        void close() {
+            try {
+                writeFully(file, ByteBuffer.allocate(2 * BLOCK));
+                file.force(false);
+                file.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close {}: {}: {}", path, e.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+
+        private static ByteBuffer tarHeader(byte[] name, char type, long size, long modifiedEpochSeconds) {
+            byte[] header = new byte[BLOCK];
+            System.arraycopy(name, 0, header, 0, Math.min(name.length, NAME_LENGTH));
+            octal(header, 100, 8, 0644);
+            octal(header, 108, 8, 0);
+            octal(header, 116, 8, 0);
+            octal(header, 124, 12, size);
+            octal(header, 136, 12, modifiedEpochSeconds);
+            header[156] = (byte) type;
+            System.arraycopy("ustar\u000000".getBytes(US_ASCII), 0, header, 257, 8);
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            long checksum = 0;
+            for (byte b : header) {
+                checksum += b & 0xff;
+            }
+            octal(header, 148, 7, checksum);
+            return ByteBuffer.wrap(header);
+        }
+
+        /**
+         * A pax extended header record, {@code "<length> <keyword>=<value>\n"}, where the length is
+         * the number of bytes of the whole record, including the length itself.
+         */
+        private static byte[] paxRecord(String keyword, byte[] value) {
+            int withoutLength = 1 + keyword.length() + 1 + value.length + 1;
+            int length = withoutLength + String.valueOf(withoutLength).length();
+            if (String.valueOf(length).length() > String.valueOf(withoutLength).length()) {
+                length++;
+            }
+            ByteBuffer record = ByteBuffer.allocate(length);
+            record.put((length + " " + keyword + "=").getBytes(US_ASCII)).put(value).put((byte) '\n');
+            return record.array();
+        }
+
+        private static void octal(byte[] header, int offset, int length, long value) {
+            String digits = Long.toOctalString(value);
+            StringBuilder field = new StringBuilder();
+            for (int i = digits.length(); i < length - 1; i++) {
+                field.append('0');
+            }
+            byte[] bytes = field.append(digits).toString().getBytes(US_ASCII);
+            System.arraycopy(bytes, 0, header, offset, length - 1);
+            header[offset + length - 1] = 0;
+        }
+    }
+
+}
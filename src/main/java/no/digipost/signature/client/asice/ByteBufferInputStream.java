@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the remaining content of a {@link ByteBuffer}, without copying the content.
+ */
+final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer content;
+
+    ByteBufferInputStream(ByteBuffer content) {
+        this.content = content;
+    }
+
+    @Override
+    public int read() {
+        return content.hasRemaining() ? content.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (!content.hasRemaining()) {
+            return len == 0 ? 0 : -1;
+        }
+        int read = Math.min(len, content.remaining());
+        content.get(b, off, read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        int skipped = (int) Math.max(0, Math.min(n, content.remaining()));
+        content.position(content.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return content.remaining();
+    }
+
+}
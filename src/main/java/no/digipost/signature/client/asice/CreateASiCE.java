@@ -22,11 +22,8 @@ import no.digipost.signature.client.asice.signature.CreateSignature;
 import no.digipost.signature.client.asice.signature.Signature;
 import no.digipost.signature.client.core.Sender;
 import no.digipost.signature.client.core.SignatureJob;
-import no.digipost.signature.client.core.exceptions.RuntimeIOException;
 import no.digipost.signature.client.security.KeyStoreConfig;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -35,23 +32,42 @@ import static no.digipost.signature.client.core.exceptions.SenderNotSpecifiedExc
 
 public class CreateASiCE<JOB extends SignatureJob> {
 
-    private final CreateZip createZip = new CreateZip();
+    private final CreateZip createZip;
     private final CreateSignature createSignature;
 
     private final ManifestCreator<JOB> manifestCreator;
     private final Optional<Sender> globalSender;
     private final KeyStoreConfig keyStoreConfig;
     private final Iterable<DocumentBundleProcessor> documentBundleProcessors;
+    private final DocumentBundleProcessing documentBundleProcessing;
 
     public CreateASiCE(ManifestCreator<JOB> manifestCreator, ASiCEConfiguration clientConfiguration) {
         this.manifestCreator = manifestCreator;
         this.globalSender = clientConfiguration.getGlobalSender();
         this.keyStoreConfig = clientConfiguration.getKeyStoreConfig();
         this.documentBundleProcessors = clientConfiguration.getDocumentBundleProcessors();
-        this.createSignature = new CreateSignature(clientConfiguration.getClock());
+        this.documentBundleProcessing = clientConfiguration.getDocumentBundleProcessing();
+        this.createSignature = new CreateSignature(clientConfiguration.getClock(), clientConfiguration.getDocumentCache());
+        this.createZip = new CreateZip(clientConfiguration);
     }
 
     public DocumentBundle createASiCE(JOB job) {
+        DocumentBundle documentBundle = zipDocumentBundle(job);
+        documentBundleProcessing.beforeSending(documentBundleProcessors, job, documentBundle);
+        return documentBundle;
+    }
+
+    /**
+     * Create and discard a document bundle for the given job, without running any
+     * {@link DocumentBundleProcessor processors}. This initializes the XML marshallers,
+     * and the signing and compression facilities, which are otherwise initialized when
+     * creating the first bundle.
+     */
+    public void warmUp(JOB syntheticJob) {
+        zipDocumentBundle(syntheticJob);
+    }
+
+    private DocumentBundle zipDocumentBundle(JOB job) {
         Sender sender = job.getSender()
                 .orElse(globalSender
                 .orElseThrow(SENDER_NOT_SPECIFIED));
@@ -65,16 +81,15 @@ public class CreateASiCE<JOB extends SignatureJob> {
         Signature signature = createSignature.createSignature(files, keyStoreConfig);
         files.add(signature);
 
-        byte[] zipped = createZip.zipIt(files);
-        for (DocumentBundleProcessor processor : documentBundleProcessors) {
-            try (ByteArrayInputStream zipStream = new ByteArrayInputStream(zipped)) {
-                processor.process(job, zipStream);
-            } catch (IOException e) {
-                throw new RuntimeIOException(e);
-            }
-        }
+        return new DocumentBundle(createZip.zipIt(files));
+    }
 
-        return new DocumentBundle(zipped);
+    /**
+     * Run any {@link DocumentBundleProcessing#concurrentlyAfterSending(java.util.concurrent.Executor, java.util.function.BiConsumer)
+     * processors which are to be run after sending} the job, when the job has been sent, or failed to be sent.
+     */
+    public void sent(JOB job, DocumentBundle documentBundle) {
+        documentBundleProcessing.afterSending(documentBundleProcessors, job, documentBundle);
     }
 
 }
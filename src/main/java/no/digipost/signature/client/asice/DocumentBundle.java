@@ -16,7 +16,10 @@
 package no.digipost.signature.client.asice;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public class DocumentBundle {
 
@@ -29,4 +32,25 @@ public class DocumentBundle {
     public InputStream getInputStream() {
         return new ByteArrayInputStream(bytes);
     }
+
+    /**
+     * @return the size of the document bundle, in bytes.
+     */
+    public int size() {
+        return bytes.length;
+    }
+
+    /**
+     * Write the document bundle to the given stream, directly from the bundle's content.
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(bytes);
+    }
+
+    /**
+     * @return a read-only view of the document bundle, sharing the bundle's content.
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
 }
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice;
+
+import no.digipost.signature.client.core.SignatureJob;
+import no.digipost.signature.client.core.exceptions.RuntimeIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Specifies how {@link DocumentBundleProcessor}s are run for each document bundle. By default,
+ * {@link #inSequence() processors run in sequence} on the thread creating the signature job, before
+ * the job is sent, but they may also run concurrently on an {@link Executor}, either
+ * {@link #concurrentlyBeforeSending(Executor) before} or
+ * {@link #concurrentlyAfterSending(Executor, BiConsumer) after} the job is sent.
+ * <p>
+ * Each processor is given its own {@link DocumentBundleProcessor#process(SignatureJob, ByteBuffer) read-only view}
+ * of the document bundle, sharing the bundle's content.
+ */
+public final class DocumentBundleProcessing {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DocumentBundleProcessing.class);
+
+    private static final DocumentBundleProcessing IN_SEQUENCE = new DocumentBundleProcessing(Optional.empty(), false, null);
+
+    /**
+     * Run the processors in sequence, on the thread creating the signature job, before the job is sent.
+     * This is the default.
+     */
+    public static DocumentBundleProcessing inSequence() {
+        return IN_SEQUENCE;
+    }
+
+    /**
+     * Run the processors concurrently on the given executor, and wait for all of them to complete
+     * before the job is sent. If any processor fails, creating the job fails.
+     */
+    public static DocumentBundleProcessing concurrentlyBeforeSending(Executor executor) {
+        return new DocumentBundleProcessing(Optional.of(executor), false, null);
+    }
+
+    /**
+     * Run the processors concurrently on the given executor when the job has been sent, or failed to
+     * be sent, without waiting for them to complete. The processors do not add to the time used to create
+     * signature jobs, and failing processors, as well as processors the executor rejects to run, are reported
+     * to the given error handler.
+     */
+    public static DocumentBundleProcessing concurrentlyAfterSending(Executor executor, BiConsumer<? super SignatureJob, ? super Exception> errorHandler) {
+        return new DocumentBundleProcessing(Optional.of(requireNonNull(executor, "executor")), true, requireNonNull(errorHandler, "errorHandler"));
+    }
+
+
+    private final Optional<Executor> executor;
+    private final boolean afterSending;
+    private final BiConsumer<? super SignatureJob, ? super Exception> errorHandler;
+
+    private DocumentBundleProcessing(Optional<Executor> executor, boolean afterSending, BiConsumer<? super SignatureJob, ? super Exception> errorHandler) {
+        this.executor = executor;
+        this.afterSending = afterSending;
+        this.errorHandler = errorHandler;
+    }
+
+    void beforeSending(Iterable<DocumentBundleProcessor> processors, SignatureJob job, DocumentBundle documentBundle) {
+        if (afterSending) {
+            return;
+        }
+        if (executor.isPresent()) {
+            List<CompletableFuture<Void>> processing = new ArrayList<>();
+            for (DocumentBundleProcessor processor : processors) {
+                processing.add(CompletableFuture.runAsync(() -> process(processor, job, documentBundle), executor.get()));
+            }
+            try {
+                CompletableFuture.allOf(processing.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        } else {
+            for (DocumentBundleProcessor processor : processors) {
+                process(processor, job, documentBundle);
+            }
+        }
+    }
+
+    void afterSending(Iterable<DocumentBundleProcessor> processors, SignatureJob job, DocumentBundle documentBundle) {
+        if (!afterSending) {
+            return;
+        }
+        for (DocumentBundleProcessor processor : processors) {
+            try {
+                CompletableFuture.runAsync(() -> process(processor, job, documentBundle), executor.get())
+                    .whenComplete((processed, failure) -> {
+                        if (failure != null) {
+                            failed(processor, job, failure instanceof CompletionException ? failure.getCause() : failure);
+                        }
+                    });
+            } catch (RejectedExecutionException e) {
+                failed(processor, job, e);
+            }
+        }
+    }
+
+    private void failed(DocumentBundleProcessor processor, SignatureJob job, Throwable failure) {
+        Exception exception = failure instanceof Exception ? (Exception) failure : new CompletionException(failure);
+        try {
+            errorHandler.accept(job, exception);
+        } catch (RuntimeException handlerFailure) {
+            LOG.warn("Error handler failed for failing document bundle processor {}: {}", processor, handlerFailure.getMessage(), handlerFailure);
+        }
+    }
+
+    private static void process(DocumentBundleProcessor processor, SignatureJob job, DocumentBundle documentBundle) {
+        try {
+            processor.process(job, documentBundle.asByteBuffer());
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+}
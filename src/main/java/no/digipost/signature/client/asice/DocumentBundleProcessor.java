@@ -19,9 +19,23 @@ import no.digipost.signature.client.core.SignatureJob;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public interface DocumentBundleProcessor {
 
     void process(SignatureJob job, InputStream documentBundleStream) throws IOException;
 
+    /**
+     * Process a document bundle given as a read-only view of the bundle, which shares its content
+     * with the views given to any other processors. Override this method to process the bundle
+     * without reading it through an {@code InputStream}.
+     * <p>
+     * The default implementation delegates to {@link #process(SignatureJob, InputStream)}.
+     */
+    default void process(SignatureJob job, ByteBuffer documentBundle) throws IOException {
+        try (InputStream documentBundleStream = new ByteBufferInputStream(documentBundle)) {
+            process(job, documentBundleStream);
+        }
+    }
+
 }
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice;
+
+import no.digipost.signature.client.asice.archive.CompressedContent;
+import no.digipost.signature.client.core.Document;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+
+import static no.digipost.signature.client.asice.signature.Digests.sha256;
+
+/**
+ * Content-addressed cache for {@link Document documents} which are included in many signature jobs,
+ * e.g. standard agreements sent to different signers. The cache holds the SHA-256 digest and the compressed
+ * zip entry of each document, so creating document bundles for a document already seen does not need to
+ * compress it again.
+ * <p>
+ * Compressed content is kept outside of the Java heap, and the least recently used documents are evicted
+ * when the total size of the compressed content exceeds the capacity of the cache. Documents which alone
+ * are larger than the capacity are not cached. If the same
+ * {@code byte[]} instance, or {@link DocumentSource#mapped(java.nio.file.Path) mapped file}, is used for the
+ * document in several jobs, the digest is not computed again either.
+ *
+ * @see no.digipost.signature.client.ClientConfiguration.Builder#cacheDocuments(long)
+ */
+public final class DocumentCache {
+
+    public static DocumentCache withCapacity(long maxCompressedBytes) {
+        if (maxCompressedBytes <= 0) {
+            throw new IllegalArgumentException("Capacity of document cache must be positive, but was " + maxCompressedBytes);
+        }
+        return new DocumentCache(maxCompressedBytes);
+    }
+
+
+    private final long capacity;
+    private final Map<Object, Digest> digests = new WeakHashMap<>();
+    private final LinkedHashMap<Digest, CompressedContent> compressed = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private DocumentCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return {@code true} if the given file is the kind of file which is cached, i.e. a {@link Document}.
+     */
+    public boolean caches(ASiCEAttachable file) {
+        return file instanceof Document;
+    }
+
+    /**
+     * @return the SHA-256 digest of the content.
+     */
+    public byte[] sha256Of(DocumentSource content) {
+        return digestOf(content).bytes.clone();
+    }
+
+    /**
+     * Get the compressed zip entry content for the given content, compressing it if it is not already cached.
+     */
+    public CompressedContent compressed(DocumentSource content, Function<DocumentSource, CompressedContent> compressor) {
+        Digest digest = digestOf(content);
+        synchronized (compressed) {
+            CompressedContent cached = compressed.get(digest);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        CompressedContent compressedContent = compressor.apply(content);
+        if (compressedContent.getCompressedSize() > capacity) {
+            return compressedContent;
+        }
+        compressedContent = compressedContent.offHeap();
+        synchronized (compressed) {
+            CompressedContent previous = compressed.put(digest, compressedContent);
+            size += compressedContent.getCompressedSize() - (previous != null ? previous.getCompressedSize() : 0);
+            for (Iterator<CompressedContent> leastRecentlyUsed = compressed.values().iterator(); size > capacity; ) {
+                CompressedContent evicted = leastRecentlyUsed.next();
+                if (evicted == compressedContent) {
+                    break;
+                }
+                size -= evicted.getCompressedSize();
+                leastRecentlyUsed.remove();
+            }
+        }
+        return compressedContent;
+    }
+
+    /**
+     * @return the number of documents with compressed content in the cache.
+     */
+    public int size() {
+        synchronized (compressed) {
+            return compressed.size();
+        }
+    }
+
+    private Digest digestOf(DocumentSource content) {
+        Object identity = content.identity();
+        if (identity == null) {
+            return new Digest(sha256(content));
+        }
+        synchronized (digests) {
+            Digest digest = digests.get(identity);
+            if (digest != null) {
+                return digest;
+            }
+        }
+        Digest digest = new Digest(sha256(content));
+        synchronized (digests) {
+            digests.put(identity, digest);
+        }
+        return digest;
+    }
+
+
+    private static final class Digest {
+        final byte[] bytes;
+        final int hashCode;
+
+        Digest(byte[] bytes) {
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Digest && Arrays.equals(bytes, ((Digest) other).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+}
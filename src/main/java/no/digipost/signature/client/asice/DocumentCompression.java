@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice;
+
+import no.digipost.signature.client.asice.archive.CompressedContent;
+import no.digipost.signature.client.asice.archive.DeflateCompressor;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * How the documents of signature jobs are compressed in the document bundle. The XML files
+ * of the bundle, i.e. the manifest and signature, are always deflated.
+ */
+public enum DocumentCompression {
+
+    /**
+     * Documents are stored uncompressed. Suitable for PDFs, which usually are already compressed
+     * internally, and deflating them costs a lot of processing for a negligible reduction in size.
+     */
+    STORED {
+        @Override
+        public CompressedContent compress(DocumentSource document, int level, DeflateCompressor compressor) {
+            return CompressedContent.store(document);
+        }
+    },
+
+    /**
+     * Documents are deflated. This is the default.
+     */
+    DEFLATE {
+        @Override
+        public CompressedContent compress(DocumentSource document, int level, DeflateCompressor compressor) {
+            return CompressedContent.deflate(document, level, compressor);
+        }
+    },
+
+    /**
+     * Documents are deflated, and blocks of large documents are deflated concurrently using the
+     * {@link ForkJoinPool#commonPool() common pool}, with {@link java.util.zip.Deflater} regardless of
+     * the configured {@link DeflateCompressor}. The documents are slightly larger than when using
+     * {@link #DEFLATE}, but on hosts with several cores, large documents are compressed much faster.
+     */
+    PARALLEL_DEFLATE {
+        @Override
+        public CompressedContent compress(DocumentSource document, int level, DeflateCompressor compressor) {
+            return CompressedContent.deflateInParallel(document, level, ForkJoinPool.commonPool());
+        }
+    },
+
+    /**
+     * Samples of each document are deflated to estimate how compressible the document is. Documents
+     * where deflating does not reduce the size by at least {@value #ADAPTIVE_MIN_SAVING_PERCENT}&nbsp;%
+     * are stored uncompressed, and other documents are deflated.
+     */
+    ADAPTIVE {
+        @Override
+        public CompressedContent compress(DocumentSource document, int level, DeflateCompressor compressor) {
+            return CompressedContent.deflateIfCompressible(document, level, compressor, ADAPTIVE_MIN_SAVING_PERCENT);
+        }
+    };
+
+    public static final int ADAPTIVE_MIN_SAVING_PERCENT = 10;
+
+
+    /**
+     * Compress a document.
+     *
+     * @param level the compression level to use if deflating the document.
+     * @param compressor the compressor to use if deflating the document.
+     */
+    public abstract CompressedContent compress(DocumentSource document, int level, DeflateCompressor compressor);
+
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice;
+
+import no.digipost.signature.client.core.exceptions.RuntimeIOException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * The content of a file to include in a document bundle. Besides content already in memory as a
+ * {@code byte[]}, the content can be read directly from a file, either {@link #of(Path) each time it
+ * is needed} or {@link #mapped(Path) mapped into memory once}, so that large documents need not be
+ * loaded into the Java heap before creating a signature job.
+ * <p>
+ * The content of a source must not change after it has been given to a signature job.
+ */
+public abstract class DocumentSource {
+
+    /**
+     * Content which is already in memory.
+     */
+    public static DocumentSource of(byte[] content) {
+        return new InMemory(content);
+    }
+
+    /**
+     * Content read from a file each time it is needed, e.g. when digesting and zipping the document.
+     */
+    public static DocumentSource of(Path file) {
+        return new FromFile(file);
+    }
+
+    /**
+     * Content of a file which is mapped into memory once, when this method is invoked.
+     */
+    public static DocumentSource mapped(Path file) {
+        return new Mapped(map(file));
+    }
+
+    /**
+     * Content which can only be read once from a stream. The stream is read, and closed, when this
+     * method is invoked, and the content is spilled to a temporary file which is mapped into memory.
+     */
+    public static DocumentSource of(InputStream stream) {
+        try (InputStream content = stream) {
+            Path spill = Files.createTempFile("signature-document-", ".tmp");
+            try {
+                Files.copy(content, spill, REPLACE_EXISTING);
+                return new Mapped(map(spill));
+            } finally {
+                try {
+                    Files.delete(spill);
+                } catch (IOException e) {
+                    spill.toFile().deleteOnExit();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+
+    DocumentSource() {
+    }
+
+    /**
+     * @return the size of the content, in bytes.
+     */
+    public abstract long size();
+
+    /**
+     * @return a read-only view of the content, positioned at the start of the content.
+     */
+    public abstract ByteBuffer content();
+
+    /**
+     * @return the content in a byte array. For content already in memory, this is the array the
+     *         source was created from, otherwise it is a copy of the content.
+     */
+    public byte[] toByteArray() {
+        ByteBuffer content = content();
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return {@code true} if the content is in memory as a {@code byte[]}, in which case {@link #toByteArray()}
+     *         returns that array without copying it.
+     */
+    public boolean hasArray() {
+        return false;
+    }
+
+    /**
+     * @return a new stream with the content.
+     */
+    public InputStream openStream() {
+        return new ByteBufferInputStream(content());
+    }
+
+    /**
+     * @return an object identifying this content, which may be used to remember properties of the content,
+     *         or {@code null} if the content must be read again to determine its properties.
+     */
+    abstract Object identity();
+
+
+    private static ByteBuffer map(Path file) {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            return channel.map(READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    private static final class InMemory extends DocumentSource {
+        private final byte[] content;
+
+        InMemory(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public long size() {
+            return content.length;
+        }
+
+        @Override
+        public ByteBuffer content() {
+            return ByteBuffer.wrap(content).asReadOnlyBuffer();
+        }
+
+        @Override
+        public byte[] toByteArray() {
+            return content;
+        }
+
+        @Override
+        public boolean hasArray() {
+            return true;
+        }
+
+        @Override
+        Object identity() {
+            return content;
+        }
+    }
+
+    private static final class FromFile extends DocumentSource {
+        private final Path file;
+
+        FromFile(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        public long size() {
+            try {
+                return Files.size(file);
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
+            }
+        }
+
+        @Override
+        public ByteBuffer content() {
+            return map(file);
+        }
+
+        @Override
+        Object identity() {
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "content of " + file;
+        }
+    }
+
+    private static final class Mapped extends DocumentSource {
+        private final ByteBuffer content;
+
+        Mapped(ByteBuffer content) {
+            this.content = content.asReadOnlyBuffer();
+        }
+
+        @Override
+        public long size() {
+            return content.remaining();
+        }
+
+        @Override
+        public ByteBuffer content() {
+            return content.duplicate();
+        }
+
+        @Override
+        Object identity() {
+            return this;
+        }
+    }
+
+}
@@ -21,6 +21,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Clock;
@@ -31,6 +33,8 @@ import java.util.function.Function;
 
 import static java.lang.String.format;
 import static java.nio.file.Files.isDirectory;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 public class DumpDocumentBundleToDisk implements DocumentBundleProcessor {
 
@@ -38,6 +42,8 @@ public class DumpDocumentBundleToDisk implements DocumentBundleProcessor {
 
     static final String TIMESTAMP_PATTERN = "yyyyMMddHHmmssSSS";
 
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern(TIMESTAMP_PATTERN);
+
     private final Path directory;
     private final Clock clock;
 
@@ -49,13 +55,25 @@ public class DumpDocumentBundleToDisk implements DocumentBundleProcessor {
 
     @Override
     public void process(SignatureJob job, InputStream documentBundle) throws IOException {
+        Files.copy(documentBundle, target(job));
+    }
+
+    @Override
+    public void process(SignatureJob job, ByteBuffer documentBundle) throws IOException {
+        try (FileChannel file = FileChannel.open(target(job), CREATE_NEW, WRITE)) {
+            while (documentBundle.hasRemaining()) {
+                file.write(documentBundle);
+            }
+        }
+    }
+
+    private Path target(SignatureJob job) throws InvalidDirectoryException {
         if (isDirectory(directory)) {
-            DateTimeFormatter timestampFormat = DateTimeFormatter.ofPattern(TIMESTAMP_PATTERN);
             Optional<String> reference = Optional.ofNullable(job.getReference());
-            String filename = timestampFormat.format(ZonedDateTime.now(clock)) + "-" + reference.map(referenceFilenamePart).orElse("") + "asice.zip";
+            String filename = TIMESTAMP_FORMAT.format(ZonedDateTime.now(clock)) + "-" + reference.map(referenceFilenamePart).orElse("") + "asice.zip";
             Path target = directory.resolve(filename);
             LOG.info("Dumping document bundle{}to {}", reference.map(ref -> format(" for job with reference '%s' ", ref)).orElse(" "), target);
-            Files.copy(documentBundle, target);
+            return target;
         } else {
             throw new InvalidDirectoryException(directory);
         }
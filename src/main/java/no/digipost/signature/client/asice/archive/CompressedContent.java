@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice.archive;
+
+import no.digipost.signature.client.asice.DocumentSource;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * The content of a single zip entry, as it is written to the archive, i.e. possibly compressed, together
+ * with the checksum and sizes needed for the entry's headers. Instances are immutable, and may be
+ * written to any number of archives.
+ */
+public final class CompressedContent {
+
+    private static final int SAMPLES = 4;
+    private static final int SAMPLE_SIZE = 16 * 1024;
+
+    /**
+     * Store content uncompressed. The content is not copied, but read directly from the source
+     * when written to an archive.
+     */
+    public static CompressedContent store(DocumentSource source) {
+        ByteBuffer content = contentOf(source);
+        CRC32 crc = new CRC32();
+        crc.update(content.duplicate());
+        return new CompressedContent(ZipEntry.STORED, crc.getValue(), content.remaining(), content);
+    }
+
+    /**
+     * Deflate content, compressing blocks of the content concurrently on the given pool. Content which is
+     * not larger than a single block is deflated on the calling thread.
+     *
+     * @param level the compression level, from 0 to 9, or -1 for the default level.
+     */
+    public static CompressedContent deflateInParallel(DocumentSource source, int level, ForkJoinPool pool) {
+        ByteBuffer content = contentOf(source);
+        if (content.remaining() <= ParallelDeflate.BLOCK_SIZE) {
+            return deflate(source, level, DeflateCompressor.javaDeflater());
+        }
+        return ParallelDeflate.deflate(content, level, pool);
+    }
+
+    /**
+     * Deflate content using the default compression level.
+     */
+    public static CompressedContent deflate(DocumentSource source) {
+        return deflate(source, Deflater.DEFAULT_COMPRESSION, DeflateCompressor.javaDeflater());
+    }
+
+    /**
+     * Deflate content using the given compressor.
+     *
+     * @param level the compression level, from 0 to 9, or -1 for the default level.
+     */
+    public static CompressedContent deflate(DocumentSource source, int level, DeflateCompressor compressor) {
+        ByteBuffer content = contentOf(source);
+        CRC32 crc = new CRC32();
+        crc.update(content.duplicate());
+        return new CompressedContent(ZipEntry.DEFLATED, crc.getValue(), content.remaining(), compressor.deflate(content, level));
+    }
+
+    /**
+     * Deflate content if deflating samples of it reduces their size by at least the given percentage,
+     * otherwise store it uncompressed.
+     *
+     * @param level the compression level, from 0 to 9, or -1 for the default level.
+     */
+    public static CompressedContent deflateIfCompressible(DocumentSource source, int level, DeflateCompressor compressor, int minSavingPercent) {
+        return isCompressible(contentOf(source), minSavingPercent) ? deflate(source, level, compressor) : store(source);
+    }
+
+    static boolean isCompressible(ByteBuffer content, int minSavingPercent) {
+        int size = content.remaining();
+        int samples = size <= SAMPLES * SAMPLE_SIZE ? 1 : SAMPLES;
+        int sampleSize = samples == 1 ? size : SAMPLE_SIZE;
+        byte[] sample = content.hasArray() ? null : new byte[sampleSize];
+        byte[] output = new byte[Deflaters.deflateBound(sampleSize)];
+        long sampled = 0;
+        long deflated = 0;
+        Deflater deflater = Deflaters.acquire(Deflater.BEST_SPEED);
+        try {
+            for (int i = 0; i < samples; i++) {
+                int offset = content.position() + (int) ((long) (size - sampleSize) * i / Math.max(samples - 1, 1));
+                deflater.reset();
+                if (sample == null) {
+                    deflater.setInput(content.array(), content.arrayOffset() + offset, sampleSize);
+                } else {
+                    ByteBuffer region = content.duplicate();
+                    region.position(offset);
+                    region.get(sample, 0, sampleSize);
+                    deflater.setInput(sample, 0, sampleSize);
+                }
+                deflater.finish();
+                int compressedSize = 0;
+                while (!deflater.finished()) {
+                    compressedSize += deflater.deflate(output);
+                }
+                sampled += sampleSize;
+                deflated += compressedSize;
+            }
+        } finally {
+            Deflaters.release(deflater);
+        }
+        return sampled > 0 && deflated * 100 <= sampled * (100 - minSavingPercent);
+    }
+
+    /**
+     * Content already in memory as a {@code byte[]} is given to the compressor in a buffer backed by
+     * that array, so that it can be deflated without first being copied out of a read-only view.
+     */
+    static ByteBuffer contentOf(DocumentSource source) {
+        return source.hasArray() ? ByteBuffer.wrap(source.toByteArray()) : source.content();
+    }
+
+
+    private final int method;
+    private final long crc;
+    private final long size;
+    private final ByteBuffer data;
+
+    CompressedContent(int method, long crc, long size, ByteBuffer data) {
+        this.method = method;
+        this.crc = crc;
+        this.size = size;
+        this.data = data.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a copy of this content kept in memory outside of the Java heap.
+     */
+    public CompressedContent offHeap() {
+        if (data.isDirect()) {
+            return this;
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.remaining());
+        direct.put(data.duplicate()).flip();
+        return new CompressedContent(method, crc, size, direct);
+    }
+
+    /**
+     * @return the compression method, either {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}.
+     */
+    public int getMethod() {
+        return method;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    /**
+     * @return the size of the uncompressed content.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the size of the content as written to the archive.
+     */
+    public long getCompressedSize() {
+        return data.remaining();
+    }
+
+    /**
+     * @return the content as written to the archive.
+     */
+    public ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+}
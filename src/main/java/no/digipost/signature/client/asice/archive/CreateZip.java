@@ -16,31 +16,73 @@
 package no.digipost.signature.client.asice.archive;
 
 import no.digipost.signature.client.asice.ASiCEAttachable;
-import no.digipost.signature.client.core.exceptions.RuntimeIOException;
+import no.digipost.signature.client.asice.ASiCEConfiguration;
+import no.digipost.signature.client.asice.DocumentCache;
+import no.digipost.signature.client.asice.DocumentCompression;
+import no.digipost.signature.client.asice.DocumentSource;
+import no.digipost.signature.client.core.Document;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Optional;
+import java.util.zip.Deflater;
 
 public class CreateZip {
 
+    /**
+     * The name of the entry which, if included, identifies the media type of an ASiC container. The entry
+     * must not be compressed, to be readable at a fixed offset in the container.
+     */
+    static final String MIMETYPE_ENTRY = "mimetype";
+
+    private final DocumentCompression documentCompression;
+    private final int compressionLevel;
+    private final DeflateCompressor compressor;
+    private final Optional<DocumentCache> documentCache;
+    private final Clock clock;
+
+    public CreateZip() {
+        this(DocumentCompression.DEFLATE, Deflater.DEFAULT_COMPRESSION, DeflateCompressor.available(), Optional.empty(), Clock.systemDefaultZone());
+    }
+
+    public CreateZip(ASiCEConfiguration configuration) {
+        this(configuration.getDocumentCompression(), configuration.getCompressionLevel(), configuration.getDeflateCompressor(),
+                configuration.getDocumentCache(), configuration.getClock());
+    }
+
+    CreateZip(DocumentCompression documentCompression, int compressionLevel, DeflateCompressor compressor, Optional<DocumentCache> documentCache, Clock clock) {
+        this.documentCompression = documentCompression;
+        this.compressionLevel = compressionLevel;
+        this.compressor = compressor;
+        this.documentCache = documentCache;
+        this.clock = clock;
+    }
+
     public byte[] zipIt(final List<ASiCEAttachable> files) {
-        try (ByteArrayOutputStream archive = new ByteArrayOutputStream()) {
-            try (ZipOutputStream zipOutputStream = new ZipOutputStream(archive)) {
-                for (ASiCEAttachable file : files) {
-                    ZipEntry zipEntry = new ZipEntry(file.getFileName());
-                    zipEntry.setSize(file.getBytes().length);
-                    zipOutputStream.putNextEntry(zipEntry);
-                    zipOutputStream.write(file.getBytes());
-                    zipOutputStream.closeEntry();
-                }
-            }
-            return archive.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeIOException(e);
+        List<String> names = new ArrayList<>(files.size());
+        List<CompressedContent> contents = new ArrayList<>(files.size());
+        for (ASiCEAttachable file : files) {
+            names.add(file.getFileName());
+            contents.add(compress(file));
+        }
+        return ZipWriter.write(names, contents, LocalDateTime.now(clock));
+    }
+
+    private CompressedContent compress(ASiCEAttachable file) {
+        if (MIMETYPE_ENTRY.equals(file.getFileName())) {
+            return CompressedContent.store(file.getSource());
+        } else if (!(file instanceof Document)) {
+            return CompressedContent.deflate(file.getSource(), compressionLevel, compressor);
         }
+        return documentCache
+                .filter(cache -> cache.caches(file))
+                .map(cache -> cache.compressed(file.getSource(), this::compressDocument))
+                .orElseGet(() -> compressDocument(file.getSource()));
+    }
 
+    private CompressedContent compressDocument(DocumentSource document) {
+        return documentCompression.compress(document, compressionLevel, compressor);
     }
 }
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice.archive;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * Service provider interface for the implementation used to deflate the files of document bundles.
+ * An alternative implementation, e.g. using a native compression library, may be registered as a
+ * {@link ServiceLoader service} in {@code META-INF/services/no.digipost.signature.client.asice.archive.DeflateCompressor},
+ * and will then be used instead of {@link java.util.zip.Deflater} unless another compressor is
+ * explicitly configured.
+ */
+@FunctionalInterface
+public interface DeflateCompressor {
+
+    /**
+     * Deflate content into the raw deflate format (RFC 1951), i.e. without zlib header or checksum.
+     *
+     * @param content the content to deflate, from its position to its limit. The content may be backed by
+     *                the document's own array, and must not be modified.
+     * @param level the compression level, from 0 to 9, or -1 for the compressor's default level.
+     * @return the deflated content, from its position to its limit.
+     */
+    ByteBuffer deflate(ByteBuffer content, int level);
+
+
+    /**
+     * @return the compressor using {@link java.util.zip.Deflater}, which is always available.
+     */
+    static DeflateCompressor javaDeflater() {
+        return JavaDeflateCompressor.INSTANCE;
+    }
+
+    /**
+     * @return the first compressor registered as a {@link ServiceLoader service}, or the
+     *         {@link #javaDeflater() Deflater-based compressor} if none are registered.
+     */
+    static DeflateCompressor available() {
+        return JavaDeflateCompressor.AVAILABLE;
+    }
+
+    /**
+     * Load the first compressor registered as a {@link ServiceLoader service}.
+     */
+    static DeflateCompressor loadFrom(ClassLoader classLoader) {
+        Iterator<DeflateCompressor> registered = ServiceLoader.load(DeflateCompressor.class, classLoader).iterator();
+        return registered.hasNext() ? registered.next() : javaDeflater();
+    }
+
+}
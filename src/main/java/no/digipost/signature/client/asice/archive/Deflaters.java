@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice.archive;
+
+import java.util.zip.Deflater;
+
+/**
+ * Reusable {@link Deflater}s, one for each thread, to avoid allocating and finalizing the native resources
+ * of a new {@code Deflater} for each file which is compressed.
+ */
+final class Deflaters {
+
+    private static final byte[] NO_INPUT = new byte[0];
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    /**
+     * Get the {@link Deflater} of the current thread, reset to start a new raw deflate stream.
+     * The deflater must be {@link #release(Deflater) released} when done.
+     */
+    static Deflater acquire(int level) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    /**
+     * Release the input of a deflater so that it is not retained while the deflater is not in use.
+     */
+    static void release(Deflater deflater) {
+        deflater.setInput(NO_INPUT);
+    }
+
+    /**
+     * @return the maximum size of {@code size} bytes when deflated, as {@code deflateBound} of zlib,
+     *         with room for a sync flush marker.
+     */
+    static int deflateBound(int size) {
+        return size + (size >> 12) + (size >> 14) + (size >> 25) + 13 + 5;
+    }
+
+    private Deflaters() {}
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice.archive;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+final class JavaDeflateCompressor implements DeflateCompressor {
+
+    static final DeflateCompressor INSTANCE = new JavaDeflateCompressor();
+
+    static final DeflateCompressor AVAILABLE = DeflateCompressor.loadFrom(DeflateCompressor.class.getClassLoader());
+
+    private static final int INPUT_CHUNK_SIZE = 64 * 1024;
+
+    @Override
+    public ByteBuffer deflate(ByteBuffer content, int level) {
+        ByteBuffer input = content.duplicate();
+        int size = input.remaining();
+        byte[] output = new byte[Deflaters.deflateBound(size)];
+        int written = 0;
+        Deflater deflater = Deflaters.acquire(level);
+        try {
+            if (input.hasArray()) {
+                deflater.setInput(input.array(), input.arrayOffset() + input.position(), size);
+            } else {
+                byte[] chunk = new byte[Math.min(size, INPUT_CHUNK_SIZE)];
+                while (input.hasRemaining()) {
+                    int chunkSize = Math.min(chunk.length, input.remaining());
+                    input.get(chunk, 0, chunkSize);
+                    deflater.setInput(chunk, 0, chunkSize);
+                    while (!deflater.needsInput()) {
+                        output = ensureCapacity(output, written);
+                        written += deflater.deflate(output, written, output.length - written);
+                    }
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                output = ensureCapacity(output, written);
+                written += deflater.deflate(output, written, output.length - written);
+            }
+            return ByteBuffer.wrap(output, 0, written);
+        } finally {
+            Deflaters.release(deflater);
+        }
+    }
+
+    private static byte[] ensureCapacity(byte[] output, int written) {
+        return written < output.length ? output : Arrays.copyOf(output, output.length + output.length / 2 + 64);
+    }
+
+    @Override
+    public String toString() {
+        return "java.util.zip.Deflater";
+    }
+
+    private JavaDeflateCompressor() {}
+}
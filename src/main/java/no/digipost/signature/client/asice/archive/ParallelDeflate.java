@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice.archive;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Deflates content by splitting it into blocks which are compressed concurrently, in the same manner as
+ * <a href="https://zlib.net/pigz/">pigz</a>. Each block is primed with the last 32 KiB of the preceding
+ * block as dictionary, to retain most of the compression ratio, and all but the last block end with a sync
+ * flush, so that the compressed blocks concatenated make up a single valid deflate stream. The CRC-32 of
+ * the content is combined from the checksums of the blocks.
+ */
+final class ParallelDeflate {
+
+    static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    static CompressedContent deflate(ByteBuffer content, int level, ForkJoinPool pool) {
+        int size = content.remaining();
+        int offset = content.position();
+        List<ForkJoinTask<Block>> blocks = new ArrayList<>();
+        for (int start = 0; start < size; start += BLOCK_SIZE) {
+            int blockStart = start;
+            int blockSize = Math.min(BLOCK_SIZE, size - start);
+            boolean last = start + blockSize == size;
+            blocks.add(pool.submit(() -> deflateBlock(content.duplicate(), level, offset, blockStart, blockSize, last)));
+        }
+        List<Block> deflatedBlocks = new ArrayList<>(blocks.size());
+        int deflatedSize = 0;
+        long crc = 0;
+        for (ForkJoinTask<Block> task : blocks) {
+            Block block = task.join();
+            deflatedBlocks.add(block);
+            deflatedSize += block.deflatedSize;
+            crc = crc32Combine(crc, block.crc, block.size);
+        }
+        byte[] deflated = new byte[deflatedSize];
+        int written = 0;
+        for (Block block : deflatedBlocks) {
+            System.arraycopy(block.deflated, 0, deflated, written, block.deflatedSize);
+            written += block.deflatedSize;
+        }
+        return new CompressedContent(ZipEntry.DEFLATED, crc, size, ByteBuffer.wrap(deflated));
+    }
+
+    private static Block deflateBlock(ByteBuffer content, int level, int offset, int start, int size, boolean last) {
+        byte[] input;
+        int inputOffset;
+        if (content.hasArray()) {
+            input = content.array();
+            inputOffset = content.arrayOffset() + offset;
+        } else {
+            int from = Math.max(0, start - DICTIONARY_SIZE);
+            input = new byte[start + size - from];
+            content.position(offset + from);
+            content.get(input);
+            inputOffset = -from;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(input, inputOffset + start, size);
+
+        Deflater deflater = Deflaters.acquire(level);
+        try {
+            if (start > 0) {
+                int dictionarySize = Math.min(DICTIONARY_SIZE, start);
+                deflater.setDictionary(input, inputOffset + start - dictionarySize, dictionarySize);
+            }
+            deflater.setInput(input, inputOffset + start, size);
+            byte[] output = new byte[Deflaters.deflateBound(size)];
+            int written = 0;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    output = ensureCapacity(output, written);
+                    written += deflater.deflate(output, written, output.length - written);
+                }
+            } else {
+                do {
+                    output = ensureCapacity(output, written);
+                    written += deflater.deflate(output, written, output.length - written, Deflater.SYNC_FLUSH);
+                } while (written == output.length);
+            }
+            return new Block(output, written, crc.getValue(), size);
+        } finally {
+            Deflaters.release(deflater);
+        }
+    }
+
+    private static byte[] ensureCapacity(byte[] output, int written) {
+        return written < output.length ? output : Arrays.copyOf(output, output.length * 2);
+    }
+
+    /**
+     * Combine the CRC-32 of two consecutive sequences of bytes into the CRC-32 of the
+     * sequences together, as {@code crc32_combine} of zlib.
+     *
+     * @param crc1 the CRC-32 of the first sequence
+     * @param crc2 the CRC-32 of the second sequence
+     * @param length2 the length of the second sequence
+     */
+    static long crc32Combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+
+    private static final class Block {
+        final byte[] deflated;
+        final int deflatedSize;
+        final long crc;
+        final int size;
+
+        Block(byte[] deflated, int deflatedSize, long crc, int size) {
+            this.deflated = deflated;
+            this.deflatedSize = deflatedSize;
+            this.crc = crc;
+            this.size = size;
+        }
+    }
+
+    private ParallelDeflate() {}
+}
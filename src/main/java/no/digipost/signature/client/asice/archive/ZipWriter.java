@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice.archive;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.zip.ZipEntry.STORED;
+
+/**
+ * Writes a zip archive of entries where the content is already {@link CompressedContent compressed}, so
+ * that each entry's headers can be written with the checksum and sizes up front, without data descriptors.
+ * As the size of the archive is known before writing it, the archive is written into a single array of
+ * exactly the required size, with the central directory records written directly after the entries.
+ */
+final class ZipWriter {
+
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int UTF8_NAMES_FLAG = 1 << 11;
+
+    static byte[] write(List<String> names, List<CompressedContent> contents, LocalDateTime modified) {
+        int entries = names.size();
+        byte[][] encodedNames = new byte[entries][];
+        long entriesSize = 0;
+        long centralDirectorySize = 0;
+        for (int i = 0; i < entries; i++) {
+            encodedNames[i] = names.get(i).getBytes(UTF_8);
+            entriesSize += LOCAL_FILE_HEADER_SIZE + encodedNames[i].length + contents.get(i).getCompressedSize();
+            centralDirectorySize += CENTRAL_DIRECTORY_HEADER_SIZE + encodedNames[i].length;
+        }
+        long archiveSize = entriesSize + centralDirectorySize + END_OF_CENTRAL_DIRECTORY_SIZE;
+        if (archiveSize > Integer.MAX_VALUE - 8 || entries > 0xffff) {
+            throw new IllegalArgumentException("Unable to create zip archive of " + archiveSize + " bytes with " + entries + " entries");
+        }
+
+        ByteBuffer archive = ByteBuffer.allocate((int) archiveSize).order(ByteOrder.LITTLE_ENDIAN);
+        int dosTime = dosTime(modified);
+        int[] offsets = new int[entries];
+        for (int i = 0; i < entries; i++) {
+            CompressedContent content = contents.get(i);
+            offsets[i] = archive.position();
+            archive.putInt(LOCAL_FILE_HEADER).putShort(versionNeeded(content));
+            putEntryFields(archive, content, encodedNames[i], dosTime);
+            archive.putShort((short) 0);
+            archive.put(encodedNames[i]);
+            archive.put(content.getData());
+        }
+        for (int i = 0; i < entries; i++) {
+            CompressedContent content = contents.get(i);
+            archive.putInt(CENTRAL_DIRECTORY_HEADER).putShort(versionNeeded(content)).putShort(versionNeeded(content));
+            putEntryFields(archive, content, encodedNames[i], dosTime);
+            archive.putShort((short) 0).putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(0).putInt(offsets[i]);
+            archive.put(encodedNames[i]);
+        }
+        archive.putInt(END_OF_CENTRAL_DIRECTORY).putShort((short) 0).putShort((short) 0)
+               .putShort((short) entries).putShort((short) entries)
+               .putInt((int) centralDirectorySize).putInt((int) entriesSize).putShort((short) 0);
+        return archive.array();
+    }
+
+    private static short versionNeeded(CompressedContent content) {
+        return (short) (content.getMethod() == STORED ? 10 : 20);
+    }
+
+    private static void putEntryFields(ByteBuffer archive, CompressedContent content, byte[] encodedName, int dosTime) {
+        archive.putShort((short) UTF8_NAMES_FLAG)
+               .putShort((short) content.getMethod())
+               .putInt(dosTime)
+               .putInt((int) content.getCrc())
+               .putInt((int) content.getCompressedSize())
+               .putInt((int) content.getSize())
+               .putShort((short) encodedName.length);
+    }
+
+    private static int dosTime(LocalDateTime time) {
+        return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16
+                | time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+    }
+
+    private ZipWriter() {}
+}
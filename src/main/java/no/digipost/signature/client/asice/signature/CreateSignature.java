@@ -16,6 +16,7 @@
 package no.digipost.signature.client.asice.signature;
 
 import no.digipost.signature.client.asice.ASiCEAttachable;
+import no.digipost.signature.client.asice.DocumentCache;
 import no.digipost.signature.client.core.exceptions.ConfigurationException;
 import no.digipost.signature.client.core.exceptions.RuntimeIOException;
 import no.digipost.signature.client.core.exceptions.XmlConfigurationException;
@@ -67,11 +68,12 @@ import java.security.cert.Certificate;
 import java.time.Clock;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 import static java.lang.String.format;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
-import static org.apache.commons.codec.digest.DigestUtils.sha256;
+import static no.digipost.signature.client.asice.signature.Digests.sha256;
 
 @SuppressWarnings("FieldCanBeLocal")
 public class CreateSignature {
@@ -88,8 +90,14 @@ public class CreateSignature {
     private final CreateXAdESProperties createXAdESProperties;
     private final TransformerFactory transformerFactory;
     private final Schema schema;
+    private final Optional<DocumentCache> documentCache;
 
     public CreateSignature(Clock clock) {
+        this(clock, Optional.empty());
+    }
+
+    public CreateSignature(Clock clock, Optional<DocumentCache> documentCache) {
+        this.documentCache = documentCache;
 
         createXAdESProperties = new CreateXAdESProperties(clock);
 
@@ -180,7 +188,7 @@ public class CreateSignature {
             try {
                 String signatureElementId = format("ID_%s", i);
                 String uri = URLEncoder.encode(files.get(i).getFileName(), "UTF-8");
-                Reference reference = xmlSignatureFactory.newReference(uri, sha256DigestMethod, null, null, signatureElementId, sha256(files.get(i).getBytes()));
+                Reference reference = xmlSignatureFactory.newReference(uri, sha256DigestMethod, null, null, signatureElementId, digest(files.get(i)));
                 result.add(reference);
             } catch(UnsupportedEncodingException e) {
                 throw new RuntimeException(e);
@@ -190,6 +198,13 @@ public class CreateSignature {
         return result;
     }
 
+    private byte[] digest(ASiCEAttachable file) {
+        return documentCache
+                .filter(cache -> cache.caches(file))
+                .map(cache -> cache.sha256Of(file.getSource()))
+                .orElseGet(() -> sha256(file.getSource()));
+    }
+
     private KeyInfo keyInfo(final XMLSignatureFactory xmlSignatureFactory, final Certificate[] sertifikater) {
         KeyInfoFactory keyInfoFactory = xmlSignatureFactory.getKeyInfoFactory();
         X509Data x509Data = keyInfoFactory.newX509Data(asList(sertifikater));
@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice.signature;
+
+import no.digipost.signature.client.asice.DocumentSource;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.security.MessageDigest;
+
+public final class Digests {
+
+    /**
+     * @return the SHA-256 digest of the content, read directly from the source without copying it
+     *         into a byte array.
+     */
+    public static byte[] sha256(DocumentSource source) {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        digest.update(source.content());
+        return digest.digest();
+    }
+
+    private Digests() {}
+}
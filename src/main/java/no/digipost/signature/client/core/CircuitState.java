@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core;
+
+/**
+ * The state of a circuit breaker guarding requests for an {@link Operation}.
+ */
+public enum CircuitState {
+
+    /**
+     * Requests are sent as normal.
+     */
+    CLOSED,
+
+    /**
+     * The service is regarded as unavailable, and requests fail immediately, without being sent.
+     */
+    OPEN,
+
+    /**
+     * The circuit has been open for the configured duration, and a single probing request is permitted,
+     * which closes the circuit if it succeeds, and opens it again if it fails.
+     */
+    HALF_OPEN
+
+}
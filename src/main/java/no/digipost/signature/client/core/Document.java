@@ -16,16 +16,21 @@
 package no.digipost.signature.client.core;
 
 import no.digipost.signature.client.asice.ASiCEAttachable;
+import no.digipost.signature.client.asice.DocumentSource;
 
 public abstract class Document implements ASiCEAttachable {
 
     private String title;
     private String message;
     private String fileName;
-    private byte[] document;
+    private DocumentSource document;
     private FileType fileType;
 
     protected Document(final String title, final String message, final String fileName, final FileType fileType, final byte[] document) {
+        this(title, message, fileName, fileType, DocumentSource.of(document));
+    }
+
+    protected Document(final String title, final String message, final String fileName, final FileType fileType, final DocumentSource document) {
         this.title = title;
         this.message = message;
         this.fileName = fileName;
@@ -40,6 +45,11 @@ public abstract class Document implements ASiCEAttachable {
 
     @Override
     public byte[] getBytes() {
+        return document.toByteArray();
+    }
+
+    @Override
+    public DocumentSource getSource() {
         return document;
     }
 
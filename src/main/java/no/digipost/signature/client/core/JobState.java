@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core;
+
+import java.time.Instant;
+
+/**
+ * The last known state of a signature job, as recorded from the statuses received for the job.
+ *
+ * @param <STATUS> the type of job status, i.e. for direct or portal jobs.
+ */
+public final class JobState<STATUS extends Enum<STATUS>> {
+
+    private final long signatureJobId;
+    private final STATUS status;
+    private final int signers;
+    private final int signed;
+    private final Instant firstSeen;
+    private final Instant lastChanged;
+    private final boolean awaitingConfirmation;
+
+    public JobState(long signatureJobId, STATUS status, int signers, int signed, Instant firstSeen, Instant lastChanged, boolean awaitingConfirmation) {
+        this.signatureJobId = signatureJobId;
+        this.status = status;
+        this.signers = signers;
+        this.signed = signed;
+        this.firstSeen = firstSeen;
+        this.lastChanged = lastChanged;
+        this.awaitingConfirmation = awaitingConfirmation;
+    }
+
+    public long getSignatureJobId() {
+        return signatureJobId;
+    }
+
+    public STATUS getStatus() {
+        return status;
+    }
+
+    public boolean is(STATUS status) {
+        return this.status == status;
+    }
+
+    /**
+     * @return the number of signers of the job.
+     */
+    public int getSigners() {
+        return signers;
+    }
+
+    /**
+     * @return the number of signers who have signed the job.
+     */
+    public int getSigned() {
+        return signed;
+    }
+
+    /**
+     * @return when a status for the job was first recorded.
+     */
+    public Instant getFirstSeen() {
+        return firstSeen;
+    }
+
+    /**
+     * @return when a changed status for the job was last recorded.
+     */
+    public Instant getLastChanged() {
+        return lastChanged;
+    }
+
+    /**
+     * @return {@code true} if the last recorded status for the job must be confirmed, and has not yet been
+     *         recorded as confirmed.
+     */
+    public boolean isAwaitingConfirmation() {
+        return awaitingConfirmation;
+    }
+
+    @Override
+    public String toString() {
+        return "state of job with ID " + signatureJobId + ": " + status + ", " + signed + " of " + signers + " signed" +
+                (awaitingConfirmation ? ", awaiting confirmation" : "");
+    }
+
+}
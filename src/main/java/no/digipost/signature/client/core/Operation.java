@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core;
+
+/**
+ * The operations performed against the Signature service.
+ */
+public enum Operation {
+
+    /**
+     * Creating a signature job. Not idempotent, as sending the same job twice creates two jobs.
+     */
+    CREATE(false),
+
+    /**
+     * Getting the status of a specific job.
+     */
+    STATUS(true),
+
+    /**
+     * Polling for status changes. Regarded as idempotent, as a status change which is not
+     * confirmed is given again by a later poll.
+     */
+    POLL(true),
+
+    /**
+     * Confirming a received status.
+     */
+    CONFIRM(true),
+
+    /**
+     * Cancelling a job. Not idempotent, as cancelling a job which has been cancelled fails.
+     */
+    CANCEL(false),
+
+    /**
+     * Downloading a signed document.
+     */
+    DOWNLOAD(true);
+
+    private final boolean idempotent;
+
+    Operation(boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+
+    /**
+     * @return {@code true} if performing the operation more than once has the same effect as
+     *         performing it once, and it is thus safe to retry it regardless of how it failed.
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core;
+
+/**
+ * Counts of the attempts to perform an {@link Operation}, and how many of them were retries.
+ */
+public final class RetryStatistics {
+
+    private final Operation operation;
+    private final long calls;
+    private final long retries;
+    private final long retriesDeniedByBudget;
+    private final long failures;
+
+    public RetryStatistics(Operation operation, long calls, long retries, long retriesDeniedByBudget, long failures) {
+        this.operation = operation;
+        this.calls = calls;
+        this.retries = retries;
+        this.retriesDeniedByBudget = retriesDeniedByBudget;
+        this.failures = failures;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return the number of times the operation has been performed, not counting retries.
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return the number of retries of failed attempts.
+     */
+    public long getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return the number of failed attempts which would have been retried, but were not,
+     *         because the retry budget was exhausted.
+     */
+    public long getRetriesDeniedByBudget() {
+        return retriesDeniedByBudget;
+    }
+
+    /**
+     * @return the number of times the operation failed, after any retries.
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return operation + ": " + calls + " calls, " + retries + " retries, " + retriesDeniedByBudget + " retries denied by budget, " + failures + " failures";
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+/**
+ * A concurrency limit which adapts to the capacity of the service, using additive increase and
+ * multiplicative decrease (AIMD). The limit is increased by one for each limit's worth of requests
+ * completing without signs of congestion, and decreased when
+ * <ul>
+ *   <li>the service responds that it is overloaded, or the request fails, which halves the limit, or</li>
+ *   <li>the response time exceeds twice the lowest observed response time, indicating that requests
+ *       are queued up at the service, which reduces the limit by 10 %.</li>
+ * </ul>
+ */
+final class AdaptiveConcurrencyLimit {
+
+    private static final double OVERLOAD_DECREASE = 0.5;
+    private static final double QUEUEING_DECREASE = 0.9;
+    private static final double QUEUEING_LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * The lowest observed latency drifts slowly upwards, so that a changed baseline, e.g. because of
+     * larger documents, is eventually accepted.
+     */
+    private static final double MIN_LATENCY_DRIFT = 1.001;
+
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    private double minLatencyNanos = Double.MAX_VALUE;
+
+    AdaptiveConcurrencyLimit(int initialLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * @return {@code true} if a request was permitted before the deadline, otherwise {@code false}.
+     */
+    synchronized boolean tryAcquire(Deadline deadline) throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            if (deadline.hasPassed()) {
+                return false;
+            }
+            wait(Math.max(1, deadline.remaining().toMillis()));
+        }
+        inFlight++;
+        return true;
+    }
+
+    synchronized void release(long latencyNanos, boolean overloaded) {
+        boolean limitWasReached = inFlight >= (int) limit;
+        inFlight--;
+        if (overloaded) {
+            limit = Math.max(1, limit * OVERLOAD_DECREASE);
+        } else {
+            minLatencyNanos = Math.min(minLatencyNanos * MIN_LATENCY_DRIFT, latencyNanos);
+            if (latencyNanos > minLatencyNanos * QUEUEING_LATENCY_TOLERANCE) {
+                limit = Math.max(1, limit * QUEUEING_DECREASE);
+            } else if (limitWasReached) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+        notifyAll();
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.CircuitBreakerPolicy;
+import no.digipost.signature.client.core.CircuitState;
+import no.digipost.signature.client.core.Operation;
+import no.digipost.signature.client.core.exceptions.CircuitOpenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static no.digipost.signature.client.core.CircuitState.CLOSED;
+import static no.digipost.signature.client.core.CircuitState.HALF_OPEN;
+import static no.digipost.signature.client.core.CircuitState.OPEN;
+import static no.digipost.signature.client.core.internal.TransientFailures.isTransient;
+
+/**
+ * A circuit breaker for each {@link Operation}, according to a {@link CircuitBreakerPolicy}.
+ */
+final class CircuitBreakers {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreakers.class);
+
+    private final CircuitBreakerPolicy policy;
+    private final Map<Operation, Breaker> breakers = new EnumMap<>(Operation.class);
+
+    CircuitBreakers(CircuitBreakerPolicy policy) {
+        this.policy = policy;
+        for (Operation operation : Operation.values()) {
+            breakers.put(operation, new Breaker(operation));
+        }
+    }
+
+    /**
+     * Send a request, unless the circuit for the operation is open.
+     *
+     * @throws CircuitOpenException if the circuit is open.
+     */
+    <T> T call(Operation operation, Supplier<T> request) {
+        if (!policy.isEnabled()) {
+            return request.get();
+        }
+        Breaker breaker = breakers.get(operation);
+        breaker.permit();
+        long slowNanos = policy.getSlowRequestThreshold(operation).map(Duration::toNanos).orElse(Long.MAX_VALUE);
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = request.get();
+            failed = false;
+            return result;
+        } catch (RuntimeException e) {
+            failed = isTransient(e);
+            throw e;
+        } finally {
+            breaker.completed(failed || System.nanoTime() - started > slowNanos);
+        }
+    }
+
+    CircuitState state(Operation operation) {
+        return breakers.get(operation).state();
+    }
+
+
+    private final class Breaker {
+
+        private final Operation operation;
+        private CircuitState state = CLOSED;
+        private int consecutiveFailures;
+        private long openedAt;
+        private boolean probing;
+
+        Breaker(Operation operation) {
+            this.operation = operation;
+        }
+
+        synchronized void permit() {
+            if (state() == OPEN) {
+                throw new CircuitOpenException(operation, policy.getOpenDuration().minusNanos(System.nanoTime() - openedAt));
+            } else if (state == HALF_OPEN && probing) {
+                throw new CircuitOpenException(operation, policy.getOpenDuration());
+            }
+            if (state == HALF_OPEN) {
+                probing = true;
+            }
+        }
+
+        synchronized void completed(boolean failed) {
+            if (state == HALF_OPEN) {
+                probing = false;
+                if (failed) {
+                    open();
+                } else {
+                    LOG.info("Closing circuit for {}, as the probing request succeeded", operation);
+                    state = CLOSED;
+                    consecutiveFailures = 0;
+                }
+            } else if (!failed) {
+                consecutiveFailures = 0;
+            } else if (++consecutiveFailures >= policy.getConsecutiveFailures() && state == CLOSED) {
+                open();
+            }
+        }
+
+        synchronized CircuitState state() {
+            if (state == OPEN && System.nanoTime() - openedAt >= policy.getOpenDuration().toNanos()) {
+                state = HALF_OPEN;
+            }
+            return state;
+        }
+
+        private void open() {
+            LOG.warn("Opening circuit for {} for {} ms, after {} consecutive failed or slow request(s)",
+                    operation, policy.getOpenDuration().toMillis(), Math.max(1, consecutiveFailures));
+            state = OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+}
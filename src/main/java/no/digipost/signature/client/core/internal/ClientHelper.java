@@ -22,52 +22,68 @@ import no.digipost.signature.api.xml.XMLError;
 import no.digipost.signature.api.xml.XMLPortalSignatureJobRequest;
 import no.digipost.signature.api.xml.XMLPortalSignatureJobResponse;
 import no.digipost.signature.api.xml.XMLPortalSignatureJobStatusChangeResponse;
+import no.digipost.signature.client.ClientConfiguration;
 import no.digipost.signature.client.asice.DocumentBundle;
+import no.digipost.signature.client.core.CircuitState;
+import no.digipost.signature.client.core.Operation;
+import no.digipost.signature.client.core.RetryStatistics;
 import no.digipost.signature.client.core.Sender;
 import no.digipost.signature.client.core.exceptions.BrokerNotAuthorizedException;
 import no.digipost.signature.client.core.exceptions.CantQueryStatusException;
+import no.digipost.signature.client.core.exceptions.DeadlineExceededException;
 import no.digipost.signature.client.core.exceptions.InvalidStatusQueryTokenException;
 import no.digipost.signature.client.core.exceptions.JobCannotBeCancelledException;
 import no.digipost.signature.client.core.exceptions.NotCancellableException;
-import no.digipost.signature.client.core.exceptions.RuntimeIOException;
 import no.digipost.signature.client.core.exceptions.SignatureException;
 import no.digipost.signature.client.core.exceptions.TooEagerPollingException;
 import no.digipost.signature.client.core.exceptions.UnexpectedResponseException;
 import no.digipost.signature.client.core.internal.http.ResponseStatus;
 import no.digipost.signature.client.core.internal.http.SignatureHttpClient;
 import org.apache.commons.lang3.StringUtils;
-import org.glassfish.jersey.media.multipart.BodyPart;
-import org.glassfish.jersey.media.multipart.MultiPart;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.StatusType;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
-import java.util.List;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
+import static javax.ws.rs.core.HttpHeaders.CONTENT_LENGTH;
 import static javax.ws.rs.core.HttpHeaders.CONTENT_TYPE;
 import static javax.ws.rs.core.MediaType.APPLICATION_OCTET_STREAM_TYPE;
 import static javax.ws.rs.core.MediaType.APPLICATION_XML_TYPE;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
 import static javax.ws.rs.core.Response.Status.FORBIDDEN;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.Status.NOT_MODIFIED;
 import static javax.ws.rs.core.Response.Status.NO_CONTENT;
 import static javax.ws.rs.core.Response.Status.OK;
 import static javax.ws.rs.core.Response.Status.TOO_MANY_REQUESTS;
+import static no.digipost.signature.client.core.Operation.CANCEL;
+import static no.digipost.signature.client.core.Operation.CONFIRM;
+import static no.digipost.signature.client.core.Operation.CREATE;
+import static no.digipost.signature.client.core.Operation.DOWNLOAD;
+import static no.digipost.signature.client.core.Operation.POLL;
+import static no.digipost.signature.client.core.Operation.STATUS;
 import static no.digipost.signature.client.core.internal.ActualSender.getActualSender;
 import static no.digipost.signature.client.core.internal.ErrorCodes.BROKER_NOT_AUTHORIZED;
 import static no.digipost.signature.client.core.internal.ErrorCodes.SIGNING_CEREMONY_NOT_COMPLETED;
 import static no.digipost.signature.client.core.internal.Target.DIRECT;
 import static no.digipost.signature.client.core.internal.Target.PORTAL;
+import static org.glassfish.jersey.client.ClientProperties.CONNECT_TIMEOUT;
+import static org.glassfish.jersey.client.ClientProperties.READ_TIMEOUT;
 
 public class ClientHelper {
 
@@ -79,41 +95,92 @@ public class ClientHelper {
     private final SignatureHttpClient httpClient;
     private final Optional<Sender> globalSender;
     private final ClientExceptionMapper clientExceptionMapper;
-
-    public ClientHelper(SignatureHttpClient httpClient, Optional<Sender> globalSender) {
+    private final RequestLimiter requestLimiter;
+    private final Retrier retrier;
+    private final CircuitBreakers circuitBreakers;
+    private final Hedger hedger;
+    private final StatusCache<XMLDirectSignatureJobStatusResponse> statusCache;
+    private final boolean coalesceRequests;
+    private final boolean validateRequests;
+    private final SingleFlight<String, XMLDirectSignatureJobStatusResponse> statusRequests = new SingleFlight<>();
+    private final SingleFlight<String, SpooledDocument> downloads = new SingleFlight<>();
+    private final Function<Operation, Optional<Duration>> timeouts;
+    private final InFlightRequests inFlight = new InFlightRequests();
+
+    public ClientHelper(SignatureHttpClient httpClient, ClientConfiguration config) {
         this.httpClient = httpClient;
-        this.globalSender = globalSender;
+        this.globalSender = config.getGlobalSender();
+        this.requestLimiter = new RequestLimiter(config::getRequestLimits);
+        this.retrier = new Retrier(config.getRetryPolicy());
+        this.circuitBreakers = new CircuitBreakers(config.getCircuitBreakerPolicy());
+        this.hedger = new Hedger(config.getHedgingPolicy());
+        this.statusCache = new StatusCache<>(config.getStatusCacheSize(), config.getStatusCacheTimeToLive(), XMLDirectSignatureJobStatusResponse::getConfirmationUrl);
+        this.coalesceRequests = config.isCoalescingRequests();
+        this.validateRequests = config.isValidatingRequests();
+        this.timeouts = config::getTimeout;
         this.clientExceptionMapper = new ClientExceptionMapper();
     }
 
     public XMLDirectSignatureJobResponse sendSignatureJobRequest(XMLDirectSignatureJobRequest signatureJobRequest, DocumentBundle documentBundle, Optional<Sender> sender) {
-        final Sender actualSender = getActualSender(sender, globalSender);
+        return sendSignatureJobRequest(signatureJobRequest, documentBundle, sender, Optional.empty());
+    }
 
-        final BodyPart signatureJobBodyPart = new BodyPart(signatureJobRequest, APPLICATION_XML_TYPE);
-        final BodyPart documentBundleBodyPart = new BodyPart(documentBundle.getInputStream(), APPLICATION_OCTET_STREAM_TYPE);
+    /**
+     * @param deadline if present, when the job must be created. The request is not sent, or retried,
+     *                 after the deadline, and the socket timeouts are shortened to the time remaining.
+     */
+    public XMLDirectSignatureJobResponse sendSignatureJobRequest(XMLDirectSignatureJobRequest signatureJobRequest, DocumentBundle documentBundle, Optional<Sender> sender, Optional<Deadline> deadline) {
+        final Sender actualSender = getActualSender(sender, globalSender);
 
-        return call(() -> new UsingBodyParts(signatureJobBodyPart, documentBundleBodyPart)
-                .postAsMultiPart(DIRECT.path(actualSender), XMLDirectSignatureJobResponse.class));
+        return call(CREATE, deadline, () -> postAsMultiPart(new MultipartRequestBody(signatureJobRequest, documentBundle, validateRequests), DIRECT, actualSender, XMLDirectSignatureJobResponse.class, deadline));
     }
 
     public XMLPortalSignatureJobResponse sendPortalSignatureJobRequest(XMLPortalSignatureJobRequest signatureJobRequest, DocumentBundle documentBundle, Optional<Sender> sender) {
-        final Sender actualSender = getActualSender(sender, globalSender);
+        return sendPortalSignatureJobRequest(signatureJobRequest, documentBundle, sender, Optional.empty());
+    }
 
-        final BodyPart signatureJobBodyPart = new BodyPart(signatureJobRequest, APPLICATION_XML_TYPE);
-        final BodyPart documentBundleBodyPart = new BodyPart(documentBundle.getInputStream(), APPLICATION_OCTET_STREAM_TYPE);
+    /**
+     * @param deadline if present, when the job must be created. The request is not sent, or retried,
+     *                 after the deadline, and the socket timeouts are shortened to the time remaining.
+     */
+    public XMLPortalSignatureJobResponse sendPortalSignatureJobRequest(XMLPortalSignatureJobRequest signatureJobRequest, DocumentBundle documentBundle, Optional<Sender> sender, Optional<Deadline> deadline) {
+        final Sender actualSender = getActualSender(sender, globalSender);
 
-        return call(() -> new UsingBodyParts(signatureJobBodyPart, documentBundleBodyPart)
-                .postAsMultiPart(PORTAL.path(actualSender), XMLPortalSignatureJobResponse.class));
+        return call(CREATE, deadline, () -> postAsMultiPart(new MultipartRequestBody(signatureJobRequest, documentBundle, validateRequests), PORTAL, actualSender, XMLPortalSignatureJobResponse.class, deadline));
     }
 
+    /**
+     * Get the status of a job. If statuses are cached, a fresh cached status is returned without contacting
+     * the service, and a cached status which is no longer fresh is revalidated using its {@code ETag}.
+     */
     public XMLDirectSignatureJobStatusResponse sendSignatureJobStatusRequest(final String statusUrl) {
-        return call(() -> {
-            Invocation.Builder request = httpClient.target(statusUrl).request().accept(APPLICATION_XML_TYPE);
+        Optional<StatusCache.Entry<XMLDirectSignatureJobStatusResponse>> cached = statusCache.get(statusUrl);
+        if (cached.filter(StatusCache.Entry::isFresh).isPresent()) {
+            return cached.get().response;
+        } else if (coalesceRequests) {
+            return statusRequests.call(statusUrl, () -> requestStatus(statusUrl, cached));
+        } else {
+            return requestStatus(statusUrl, cached);
+        }
+    }
+
+    private XMLDirectSignatureJobStatusResponse requestStatus(String statusUrl, Optional<StatusCache.Entry<XMLDirectSignatureJobStatusResponse>> cached) {
+        return call(STATUS, () -> {
+            Invocation.Builder request = request(httpClient.target(statusUrl), STATUS, Optional.empty()).accept(APPLICATION_XML_TYPE);
+            Optional<String> cachedETag = cached.flatMap(entry -> entry.eTag);
+            if (cachedETag.isPresent()) {
+                request.header(HttpHeaders.IF_NONE_MATCH, cachedETag.get());
+            }
 
             try (Response response = request.get()) {
                 StatusType status = ResponseStatus.resolve(response.getStatus());
                 if (status == OK) {
-                    return response.readEntity(XMLDirectSignatureJobStatusResponse.class);
+                    XMLDirectSignatureJobStatusResponse statusResponse = response.readEntity(XMLDirectSignatureJobStatusResponse.class);
+                    statusCache.put(statusUrl, statusResponse, Optional.ofNullable(response.getHeaderString(HttpHeaders.ETAG)));
+                    return statusResponse;
+                } else if (status == NOT_MODIFIED && cachedETag.isPresent()) {
+                    statusCache.revalidated(cached.get());
+                    return cached.get().response;
                 } else if (status == FORBIDDEN) {
                     XMLError error = extractError(response);
                     if (ErrorCodes.INVALID_STATUS_QUERY_TOKEN.sameAs(error.getErrorCode())) {
@@ -130,15 +197,48 @@ public class ClientHelper {
         });
     }
 
+    /**
+     * Get a stream of a signed document. The download is regarded as in progress until the stream is closed.
+     * If {@link ClientConfiguration#isCoalescingRequests() coalescing requests}, the document is downloaded
+     * to a temporary file, which is read by all the callers requesting the same document concurrently.
+     */
     public InputStream getSignedDocumentStream(final String uri) {
-        return call(() -> parseResponse(httpClient.target(uri).request().accept(APPLICATION_XML_TYPE, APPLICATION_OCTET_STREAM_TYPE).get(), InputStream.class));
+        if (coalesceRequests) {
+            return downloads.call(uri, () -> SpooledDocument.spool(download(uri)), SpooledDocument::open, SpooledDocument::release);
+        } else {
+            return download(uri);
+        }
+    }
+
+    private InputStream download(String uri) {
+        inFlight.enter();
+        try {
+            InputStream document = retrier.call(DOWNLOAD, () -> hedger.call(DOWNLOAD, () -> circuitBreakers.call(DOWNLOAD, () -> clientExceptionMapper.doWithMappedClientException(
+                    () -> parseResponse(request(httpClient.target(uri), DOWNLOAD, Optional.empty()).accept(APPLICATION_XML_TYPE, APPLICATION_OCTET_STREAM_TYPE).get(), InputStream.class)))));
+            return new FilterInputStream(document) {
+                private final AtomicBoolean closed = new AtomicBoolean(false);
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if (closed.compareAndSet(false, true)) {
+                            inFlight.exit();
+                        }
+                    }
+                }
+            };
+        } catch (RuntimeException e) {
+            inFlight.exit();
+            throw e;
+        }
     }
 
     public void cancel(final Cancellable cancellable) {
-        call(() -> {
+        call(CANCEL, () -> {
             if (cancellable.getCancellationUrl() != null) {
                 String url = cancellable.getCancellationUrl().getUrl();
-                try (Response response = postEmptyEntity(url)) {
+                try (Response response = postEmptyEntity(url, CANCEL)) {
                     StatusType status = ResponseStatus.resolve(response.getStatus());
                     if (status == OK) {
                         return;
@@ -163,13 +263,15 @@ public class ClientHelper {
     }
 
     private <RESPONSE_CLASS> RESPONSE_CLASS getStatusChange(final Optional<Sender> sender, final Target target, final Class<RESPONSE_CLASS> responseClass) {
-        return call(() -> {
+        return call(POLL, () -> {
             Sender actualSender = getActualSender(sender, globalSender);
-            Invocation.Builder request = httpClient.signatureServiceRoot().path(target.path(actualSender))
-                    .queryParam(POLLING_QUEUE_QUERY_PARAMETER, actualSender.getPollingQueue().value)
-                    .request()
-                    .accept(APPLICATION_XML_TYPE);
-            try (Response response = request.get()) {
+            RequestLimiter.Permit permit = requestLimiter.acquire(POLL, target, actualSender);
+            boolean overloaded = true;
+            try (Response response = request(httpClient.signatureServiceRoot().path(target.path(actualSender))
+                    .queryParam(POLLING_QUEUE_QUERY_PARAMETER, actualSender.getPollingQueue().value), POLL, Optional.empty())
+                    .accept(APPLICATION_XML_TYPE)
+                    .get()) {
+                overloaded = RequestLimiter.isOverloaded(response.getStatus());
                 StatusType status = ResponseStatus.resolve(response.getStatus());
                 if (status == NO_CONTENT) {
                     return null;
@@ -180,70 +282,178 @@ public class ClientHelper {
                 } else {
                     throw exceptionForGeneralError(response);
                 }
+            } finally {
+                permit.release(overloaded);
             }
         });
     }
 
     public void confirm(final Confirmable confirmable) {
-        call(() -> {
+        call(CONFIRM, () -> {
             if (confirmable.getConfirmationReference() != null) {
                 String url = confirmable.getConfirmationReference().getConfirmationUrl();
-                LOG.info("Sends confirmation for '{}' to URL {}", confirmable, url);
-                try (Response response = postEmptyEntity(url)) {
+                LOG.debug("Sends confirmation for '{}' to URL {}", confirmable, url);
+                try (Response response = postEmptyEntity(url, CONFIRM)) {
                     StatusType status = ResponseStatus.resolve(response.getStatus());
                     if (status != OK) {
                         throw exceptionForGeneralError(response);
                     }
                 }
+                statusCache.invalidateConfirmed(url);
             } else {
-                LOG.info("Does not need to send confirmation for '{}'", confirmable);
+                LOG.debug("Does not need to send confirmation for '{}'", confirmable);
             }
         });
     }
 
-    private <T> T call(Supplier<T> supplier) {
-        return clientExceptionMapper.doWithMappedClientException(supplier);
+    /**
+     * Send a request to the root of the Signature service, to establish a connection, including the TLS
+     * handshake, which is kept alive and reused by subsequent requests. The response is discarded, and
+     * failing to connect is only logged, as the service will be contacted again when actually used.
+     */
+    public void warmUp() {
+        try (Response response = httpClient.signatureServiceRoot().request().head()) {
+            LOG.debug("Connected to {}, which responded {}", httpClient.signatureServiceRoot().getUri(), response.getStatus());
+        } catch (ProcessingException e) {
+            LOG.warn("Unable to connect to {} when warming up. {}: '{}'",
+                    httpClient.signatureServiceRoot().getUri(), e.getClass().getSimpleName(), e.getMessage());
+        }
     }
 
-    private void call(Runnable action) {
-        clientExceptionMapper.doWithMappedClientException(action);
+    /**
+     * Reject any new requests, wait for requests in progress to complete, and close this helper's
+     * reference to the HTTP client.
+     *
+     * @param deadline when to stop waiting for requests in progress, which are then aborted
+     *                 if the HTTP client is not shared with another client.
+     */
+    public void close(Deadline deadline) {
+        inFlight.close();
+        try {
+            if (!inFlight.awaitCompletion(deadline)) {
+                LOG.warn("Closing the HTTP client with requests still in progress");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            hedger.close();
+            httpClient.close();
+        }
     }
 
-    private class UsingBodyParts {
+    /**
+     * @return the statistics for retries of the given operation.
+     */
+    public RetryStatistics getRetryStatistics(Operation operation) {
+        return retrier.statistics(operation);
+    }
 
-        private final List<BodyPart> parts;
+    /**
+     * @return the state of the circuit breaker for the given operation.
+     */
+    public CircuitState getCircuitState(Operation operation) {
+        return circuitBreakers.state(operation);
+    }
 
-        UsingBodyParts(BodyPart... parts) {
-            this.parts = Arrays.asList(parts);
-        }
+    private <T> T call(Operation operation, Supplier<T> supplier) {
+        return call(operation, Optional.empty(), supplier);
+    }
 
-        <T> T postAsMultiPart(String path, Class<T> responseType) {
-            try (MultiPart multiPart = new MultiPart()) {
-                for (BodyPart bodyPart : parts) {
-                    multiPart.bodyPart(bodyPart);
+    private <T> T call(Operation operation, Optional<Deadline> deadline, Supplier<T> supplier) {
+        inFlight.enter();
+        try {
+            return retrier.call(operation, () -> {
+                if (deadline.filter(Deadline::hasPassed).isPresent()) {
+                    throw new DeadlineExceededException(operation);
                 }
+                return hedger.call(operation, () -> circuitBreakers.call(operation, () -> clientExceptionMapper.doWithMappedClientException(supplier)));
+            });
+        } finally {
+            inFlight.exit();
+        }
+    }
 
-                Invocation.Builder request = httpClient.signatureServiceRoot().path(path)
-                        .request()
-                        .header(CONTENT_TYPE, multiPart.getMediaType())
-                        .accept(APPLICATION_XML_TYPE);
-                try (Response response = request.post(Entity.entity(multiPart, multiPart.getMediaType()))) {
-                    return parseResponse(response, responseType);
-                }
-            } catch (IOException e) {
-                throw new RuntimeIOException(e);
-            }
+    private void call(Operation operation, Runnable action) {
+        call(operation, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Send a multipart request with a {@code Content-Length}, so that the body is streamed, rather than
+     * buffered by the HTTP client to determine its length. The request is built after waiting for a permit
+     * from the request limits, so that its timeouts are given by the time remaining until the deadline when
+     * it is actually sent.
+     */
+    private <T> T postAsMultiPart(MultipartRequestBody body, Target target, Sender sender, Class<T> responseType, Optional<Deadline> deadline) {
+        RequestLimiter.Permit permit = requestLimiter.acquire(CREATE, target, sender, deadline);
+        Invocation.Builder request;
+        try {
+            request = request(httpClient.signatureServiceRoot().path(target.path(sender)), CREATE, deadline)
+                    .header(CONTENT_TYPE, body.getMediaType())
+                    .header(CONTENT_LENGTH, body.getContentLength())
+                    .accept(APPLICATION_XML_TYPE);
+        } catch (DeadlineExceededException e) {
+            permit.release(false);
+            throw e;
+        }
+        boolean overloaded = true;
+        try (Response response = request.post(Entity.entity(body, body.getMediaType()))) {
+            overloaded = RequestLimiter.isOverloaded(response.getStatus());
+            return parseResponse(response, responseType);
+        } finally {
+            permit.release(overloaded);
         }
     }
 
-    private Response postEmptyEntity(String uri) {
-        return httpClient.target(uri)
-                .request()
+    private Response postEmptyEntity(String uri, Operation operation) {
+        return request(httpClient.target(uri), operation, Optional.empty())
                 .accept(APPLICATION_XML_TYPE)
                 .header("Content-Length", 0)
                 .post(Entity.entity(null, APPLICATION_XML_TYPE));
     }
 
+    /**
+     * Create a request with the socket timeout configured for the operation, and, if there is a deadline,
+     * with neither the connect nor the socket timeout exceeding the time remaining until the deadline.
+     */
+    private Invocation.Builder request(WebTarget target, Operation operation, Optional<Deadline> deadline) {
+        Invocation.Builder request = target.request();
+        Optional<Duration> socketTimeout = timeouts.apply(operation);
+        if (deadline.isPresent()) {
+            Duration remaining = deadline.get().remaining();
+            if (remaining.isZero()) {
+                throw new DeadlineExceededException(operation);
+            }
+            Optional<Duration> configuredSocketTimeout = socketTimeout.isPresent() ? socketTimeout : configuredTimeout(target, READ_TIMEOUT);
+            socketTimeout = Optional.of(shortest(configuredSocketTimeout, remaining));
+            request.property(CONNECT_TIMEOUT, toMillis(shortest(configuredTimeout(target, CONNECT_TIMEOUT), remaining)));
+        }
+        socketTimeout.ifPresent(timeout -> request.property(READ_TIMEOUT, toMillis(timeout)));
+        return request;
+    }
+
+    /**
+     * @return the timeout configured for the HTTP client, or nothing if there is no timeout.
+     */
+    private static Optional<Duration> configuredTimeout(WebTarget target, String property) {
+        return Optional.ofNullable(target.getConfiguration().getProperty(property))
+                .filter(Number.class::isInstance).map(millis -> ((Number) millis).longValue())
+                .filter(millis -> millis > 0).map(Duration::ofMillis);
+    }
+
+    private static Duration shortest(Optional<Duration> timeout, Duration remaining) {
+        return timeout.filter(t -> t.compareTo(remaining) < 0).orElse(remaining);
+    }
+
+    /**
+     * @return the duration in milliseconds, at least 1 ms, as 0 means no timeout.
+     */
+    private static int toMillis(Duration timeout) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, timeout.toMillis()));
+    }
+
     private <T> T parseResponse(Response response, Class<T> responseType) {
         StatusType status = ResponseStatus.resolve(response.getStatus());
         if (status == OK) {
@@ -0,0 +1,338 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.core.ConfirmationReference;
+import no.digipost.signature.client.core.exceptions.CircuitOpenException;
+import no.digipost.signature.client.core.exceptions.ClientClosedException;
+import no.digipost.signature.client.core.exceptions.RuntimeIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static no.digipost.signature.client.core.internal.TransientFailures.isTransient;
+
+/**
+ * Sends confirmations in the background, with a bounded number of confirmations being sent concurrently.
+ * Confirmations failing because of I/O errors or errors on the server are retried with exponential backoff
+ * until they succeed.
+ * <p>
+ * Optionally, the queued confirmations are appended to a journal file, and removed from the journal when
+ * sent, so that confirmations not sent, either because the application terminates or because sending them
+ * failed, are sent again when a new queue is created with the same journal.
+ */
+public class ConfirmationQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConfirmationQueue.class);
+
+    static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+    static final Duration MAX_BACKOFF = Duration.ofMinutes(5);
+    static final int COMPACT_JOURNAL_EVERY = 10_000;
+
+    private static final char ADDED = '+';
+    private static final char CONFIRMED = '-';
+
+    private final Consumer<Confirmable> confirm;
+    private final Duration initialBackoff;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Optional<Journal> journal;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Set<CompletableFuture<Void>> unsent = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    public ConfirmationQueue(Consumer<Confirmable> confirm, int parallelism, Optional<Path> journalFile) {
+        this(confirm, parallelism, journalFile, INITIAL_BACKOFF);
+    }
+
+    ConfirmationQueue(Consumer<Confirmable> confirm, int parallelism, Optional<Path> journalFile, Duration initialBackoff) {
+        this(confirm, parallelism, journalFile, initialBackoff, COMPACT_JOURNAL_EVERY);
+    }
+
+    ConfirmationQueue(Consumer<Confirmable> confirm, int parallelism, Optional<Path> journalFile, Duration initialBackoff, int compactJournalEvery) {
+        this.confirm = confirm;
+        this.initialBackoff = initialBackoff;
+        this.executor = new ScheduledThreadPoolExecutor(parallelism, runnable -> {
+            Thread confirmingThread = new Thread(runnable, "signature-confirmation-sender");
+            confirmingThread.setDaemon(true);
+            return confirmingThread;
+        });
+        this.executor.setKeepAliveTime(30, SECONDS);
+        this.executor.allowCoreThreadTimeOut(true);
+        this.journal = journalFile.map(file -> new Journal(file, compactJournalEvery));
+        Set<String> unconfirmed = journal.map(Journal::unconfirmedWhenOpened).orElseGet(Collections::emptySet);
+        if (!unconfirmed.isEmpty()) {
+            LOG.info("Resending {} unconfirmed confirmation(s) from {}", unconfirmed.size(), journalFile.get());
+            unconfirmed.forEach(url -> send(new JournaledConfirmation(url), new CompletableFuture<>(), 1));
+        }
+    }
+
+    /**
+     * Queue a confirmation to be sent in the background.
+     *
+     * @return a future which is completed when the confirmation is sent.
+     */
+    public CompletableFuture<Void> enqueue(Confirmable confirmable) {
+        CompletableFuture<Void> confirmed = new CompletableFuture<>();
+        ConfirmationReference reference = confirmable.getConfirmationReference();
+        if (reference == null) {
+            confirmed.complete(null);
+            return confirmed;
+        } else if (closed) {
+            confirmed.completeExceptionally(new ClientClosedException());
+            return confirmed;
+        }
+        journal.ifPresent(journal -> journal.append(ADDED, reference.getConfirmationUrl()));
+        pending.incrementAndGet();
+        send(confirmable, confirmed, 1);
+        return confirmed;
+    }
+
+    /**
+     * @return the number of confirmations which have been queued, but not yet sent.
+     */
+    public int pending() {
+        return pending.get();
+    }
+
+    /**
+     * Stop accepting new confirmations, and wait for the queued confirmations to be sent. Confirmations
+     * not sent before the deadline are abandoned, and their futures completed with a
+     * {@link ClientClosedException}. If a journal is used, they are sent when a new queue is created with
+     * the same journal.
+     */
+    public void close(Deadline deadline) {
+        closed = true;
+        try {
+            synchronized (pending) {
+                while (pending.get() > 0 && !deadline.hasPassed()) {
+                    pending.wait(Math.max(1, deadline.remaining().toMillis()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            if (pending.get() > 0) {
+                LOG.warn("Closed with {} confirmation(s) not sent{}", pending.get(), journal.isPresent() ? ", which remain in the journal" : "");
+            }
+            journal.ifPresent(Journal::close);
+            unsent.forEach(this::abandon);
+        }
+    }
+
+    private void send(Confirmable confirmable, CompletableFuture<Void> confirmed, int attempt) {
+        unsent.add(confirmed);
+        try {
+            executor.execute(() -> attempt(confirmable, confirmed, attempt));
+        } catch (RejectedExecutionException e) {
+            abandon(confirmed);
+        }
+    }
+
+    private void attempt(Confirmable confirmable, CompletableFuture<Void> confirmed, int attempt) {
+        try {
+            confirm.accept(confirmable);
+            journal.ifPresent(journal -> journal.append(CONFIRMED, confirmable.getConfirmationReference().getConfirmationUrl()));
+            done(confirmed, () -> confirmed.complete(null));
+        } catch (CircuitOpenException e) {
+            LOG.info("Circuit open when sending confirmation for '{}' (attempt {}), retrying in {} ms", confirmable, attempt, e.getRetryAfter().toMillis());
+            retry(confirmable, confirmed, attempt, e.getRetryAfter().toMillis());
+        } catch (RuntimeException e) {
+            if (isTransient(e)) {
+                long backoff = Math.min(initialBackoff.toMillis() << Math.min(attempt - 1, 20), MAX_BACKOFF.toMillis());
+                LOG.warn("Failed sending confirmation for '{}' (attempt {}), retrying in {} ms. {}: '{}'",
+                        confirmable, attempt, backoff, e.getClass().getSimpleName(), e.getMessage());
+                retry(confirmable, confirmed, attempt + 1, backoff);
+            } else {
+                LOG.warn("Unable to send confirmation for '{}', and will not retry. {}: '{}'", confirmable, e.getClass().getSimpleName(), e.getMessage());
+                done(confirmed, () -> confirmed.completeExceptionally(e));
+            }
+        }
+    }
+
+    private void retry(Confirmable confirmable, CompletableFuture<Void> confirmed, int attempt, long delayMillis) {
+        try {
+            executor.schedule(() -> send(confirmable, confirmed, attempt), delayMillis, MILLISECONDS);
+        } catch (RejectedExecutionException closed) {
+            abandon(confirmed);
+        }
+    }
+
+    private void done(CompletableFuture<Void> confirmed, Runnable complete) {
+        synchronized (pending) {
+            pending.decrementAndGet();
+            unsent.remove(confirmed);
+            complete.run();
+            pending.notifyAll();
+        }
+    }
+
+    /**
+     * Give up sending a confirmation because the queue is closed. The confirmation is still counted as
+     * pending, and remains in the journal, if any.
+     */
+    private void abandon(CompletableFuture<Void> confirmed) {
+        unsent.remove(confirmed);
+        confirmed.completeExceptionally(new ClientClosedException());
+    }
+
+
+    /**
+     * The journal of queued and sent confirmations. Confirmations which fail without being retried are not
+     * removed from the journal, so that they are sent again when a new queue is created with the journal.
+     * The journal is compacted to the confirmations not yet sent each time the given number of lines have
+     * been appended to it, so that it does not grow without bounds while the queue is in use.
+     */
+    private static final class Journal {
+
+        private final Path file;
+        private final int compactEvery;
+        private final Set<String> unconfirmedWhenOpened;
+        private FileChannel channel;
+        private int appendedSinceCompaction;
+
+        Journal(Path file, int compactEvery) {
+            this.file = file;
+            this.compactEvery = compactEvery;
+            this.unconfirmedWhenOpened = compact(file);
+            this.channel = openForAppending(file);
+        }
+
+        Set<String> unconfirmedWhenOpened() {
+            return unconfirmedWhenOpened;
+        }
+
+        synchronized void append(char operation, String url) {
+            if (!channel.isOpen()) {
+                return;
+            }
+            ByteBuffer line = ByteBuffer.wrap((operation + url + "\n").getBytes(UTF_8));
+            try {
+                while (line.hasRemaining()) {
+                    channel.write(line);
+                }
+                if (operation == ADDED) {
+                    channel.force(false);
+                }
+                if (++appendedSinceCompaction >= compactEvery) {
+                    channel.close();
+                    compact(file);
+                    channel = openForAppending(file);
+                    appendedSinceCompaction = 0;
+                }
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
+            }
+        }
+
+        synchronized void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close confirmation journal. {}: '{}'", e.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+
+        private static Set<String> compact(Path file) {
+            Set<String> unconfirmed = new LinkedHashSet<>();
+            try {
+                if (!Files.exists(file)) {
+                    return unconfirmed;
+                }
+                List<String> lines = Files.readAllLines(file, UTF_8);
+                for (String line : lines) {
+                    if (line.isEmpty()) {
+                        continue;
+                    } else if (line.charAt(0) == ADDED) {
+                        unconfirmed.add(line.substring(1));
+                    } else if (line.charAt(0) == CONFIRMED) {
+                        unconfirmed.remove(line.substring(1));
+                    }
+                }
+                Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.deleteIfExists(compacted);
+                try (FileChannel compactedJournal = FileChannel.open(compacted, CREATE_NEW, WRITE)) {
+                    for (String url : unconfirmed) {
+                        ByteBuffer line = ByteBuffer.wrap((ADDED + url + "\n").getBytes(UTF_8));
+                        while (line.hasRemaining()) {
+                            compactedJournal.write(line);
+                        }
+                    }
+                    compactedJournal.force(true);
+                }
+                Files.move(compacted, file, ATOMIC_MOVE);
+                return unconfirmed;
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
+            }
+        }
+
+        private static FileChannel openForAppending(Path file) {
+            try {
+                return FileChannel.open(file, CREATE, WRITE, APPEND);
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
+            }
+        }
+    }
+
+
+    private final class JournaledConfirmation implements Confirmable {
+
+        private final ConfirmationReference confirmationReference;
+
+        JournaledConfirmation(String confirmationUrl) {
+            this.confirmationReference = ConfirmationReference.of(confirmationUrl);
+            pending.incrementAndGet();
+        }
+
+        @Override
+        public ConfirmationReference getConfirmationReference() {
+            return confirmationReference;
+        }
+
+        @Override
+        public String toString() {
+            return "unconfirmed status from journal";
+        }
+    }
+
+}
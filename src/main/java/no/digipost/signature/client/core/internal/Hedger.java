@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.HedgingPolicy;
+import no.digipost.signature.client.core.Operation;
+import no.digipost.signature.client.core.exceptions.SignatureException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Performs {@link Operation operations}, sending a second, hedged, request according to a {@link HedgingPolicy}
+ * if the first does not complete within the delay given by the latencies recently observed for the operation.
+ */
+final class Hedger {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Hedger.class);
+
+    /**
+     * The maximum number of hedged requests which may be saved up in the budget.
+     */
+    private static final double MAX_BUDGET = 10;
+
+    private final HedgingPolicy policy;
+    private final Map<Operation, Latencies> latencies = new EnumMap<>(Operation.class);
+    private final ExecutorService executor;
+    private double budget = 0;
+
+    Hedger(HedgingPolicy policy) {
+        this.policy = policy;
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new Latencies());
+        }
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread requestingThread = new Thread(runnable, "signature-hedged-request");
+            requestingThread.setDaemon(true);
+            return requestingThread;
+        });
+    }
+
+    <T> T call(Operation operation, Supplier<T> attempt) {
+        if (!policy.hedges(operation)) {
+            return attempt.get();
+        }
+        deposit();
+        Attempts<T> attempts = new Attempts<>(operation, attempt);
+        attempts.launch();
+        try {
+            try {
+                return attempts.result.get(delay(operation).toNanos(), NANOSECONDS);
+            } catch (TimeoutException slow) {
+                if (withdraw()) {
+                    LOG.debug("{} is slower than {}, sending hedged request", operation, delay(operation));
+                    attempts.launch();
+                }
+                return attempts.result.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SignatureException("Failed " + operation, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            attempts.cancel();
+            throw new SignatureException("Interrupted while waiting for " + operation, e);
+        }
+    }
+
+    Duration delay(Operation operation) {
+        long percentile = latencies.get(operation).percentile(policy.getDelayPercentile());
+        return percentile < 0 ? policy.getInitialDelay() : Duration.ofNanos(percentile);
+    }
+
+    void close() {
+        executor.shutdownNow();
+    }
+
+    private synchronized void deposit() {
+        budget = Math.min(MAX_BUDGET, budget + policy.getMaxExtraLoad());
+    }
+
+    private synchronized boolean withdraw() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    private static void discard(Object response) {
+        if (response instanceof Closeable) {
+            try {
+                ((Closeable) response).close();
+            } catch (IOException e) {
+                LOG.debug("Unable to close discarded response. {}: '{}'", e.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * The requests sent for one operation, where the first successful response completes the
+     * result, and the operation fails only if all the requests fail.
+     */
+    private final class Attempts<T> {
+
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        private final Operation operation;
+        private final Supplier<T> attempt;
+        private final List<Future<?>> launched = new ArrayList<>(2);
+        private int failed;
+
+        Attempts(Operation operation, Supplier<T> attempt) {
+            this.operation = operation;
+            this.attempt = attempt;
+        }
+
+        synchronized void launch() {
+            if (result.isDone()) {
+                return;
+            }
+            int index = launched.size();
+            launched.add(executor.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    T response = attempt.get();
+                    latencies.get(operation).record(System.nanoTime() - start);
+                    if (result.complete(response)) {
+                        cancelAllExcept(index);
+                    } else {
+                        discard(response);
+                    }
+                } catch (RuntimeException e) {
+                    failed(e);
+                }
+            }));
+        }
+
+        /**
+         * Give up on the operation. The result is cancelled first, so that any response arriving
+         * after this is discarded.
+         */
+        synchronized void cancel() {
+            result.cancel(false);
+            cancelAllExcept(-1);
+        }
+
+        private synchronized void failed(RuntimeException e) {
+            if (++failed == launched.size()) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        private synchronized void cancelAllExcept(int winner) {
+            for (int i = 0; i < launched.size(); i++) {
+                if (i != winner) {
+                    launched.get(i).cancel(true);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The most recently observed latencies of an operation.
+     */
+    private static final class Latencies {
+
+        private static final int SAMPLES = 128;
+        private static final int MIN_SAMPLES = 20;
+
+        private final long[] samples = new long[SAMPLES];
+        private int next;
+        private int size;
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % SAMPLES;
+            size = Math.min(size + 1, SAMPLES);
+        }
+
+        /**
+         * @return the latency in nanoseconds at the given percentile, or {@code -1} if too few latencies
+         *         have been observed.
+         */
+        synchronized long percentile(double percentile) {
+            if (size < MIN_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return sorted[Math.max(0, (int) Math.ceil(percentile / 100 * size) - 1)];
+        }
+    }
+
+}
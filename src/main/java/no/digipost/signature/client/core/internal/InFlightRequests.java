@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.core.exceptions.ClientClosedException;
+
+/**
+ * Counts the requests in progress, so that closing a client can wait for them to complete,
+ * and rejects new requests when the client is closed.
+ */
+final class InFlightRequests {
+
+    private int inFlight;
+    private boolean closed;
+
+    /**
+     * Register a request being started.
+     *
+     * @throws ClientClosedException if the client is closed.
+     */
+    synchronized void enter() {
+        if (closed) {
+            throw new ClientClosedException();
+        }
+        inFlight++;
+    }
+
+    /**
+     * Register a request, previously {@link #enter() started}, as complete.
+     */
+    synchronized void exit() {
+        if (--inFlight == 0) {
+            notifyAll();
+        }
+    }
+
+    synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * Wait until all requests in progress have completed, or the deadline has passed.
+     *
+     * @return {@code true} if all requests completed, {@code false} if the deadline passed.
+     */
+    synchronized boolean awaitCompletion(Deadline deadline) throws InterruptedException {
+        while (inFlight > 0) {
+            long remainingMillis = deadline.remaining().toMillis();
+            if (remainingMillis <= 0) {
+                return false;
+            }
+            wait(remainingMillis);
+        }
+        return true;
+    }
+
+}
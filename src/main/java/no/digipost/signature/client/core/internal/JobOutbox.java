@@ -0,0 +1,330 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.asice.DocumentBundle;
+import no.digipost.signature.client.core.Sender;
+import no.digipost.signature.client.core.exceptions.CircuitOpenException;
+import no.digipost.signature.client.core.exceptions.ClientClosedException;
+import no.digipost.signature.client.core.exceptions.RuntimeIOException;
+import no.digipost.signature.jaxb.spring.SignatureJaxb2Marshaller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static no.digipost.signature.client.core.internal.TransientFailures.isNotProcessed;
+import static no.digipost.signature.client.core.internal.TransientFailures.isTransient;
+import static org.apache.commons.codec.digest.DigestUtils.sha256Hex;
+
+/**
+ * A file based outbox for signature job requests. Each job is persisted in its own directory,
+ * named from the job reference, which is first written in full to a temporary directory and then
+ * atomically moved in place. The response from the Signature service is persisted the same way
+ * when the job has been created, and a job with a persisted response is never sent again.
+ * <p>
+ * Sending is done asynchronously, and is retried with exponential backoff only when failing in a way
+ * which is known to have happened before the job was processed by the service (i.e. the connection
+ * could not be established, or the service rejected the request because it is overloaded). Other
+ * transient failures, e.g. a read timeout, may have happened after the job was created, and the job
+ * is then not sent again automatically, as it could create a duplicate job. Jobs which are not sent
+ * successfully remain in the outbox, and may be sent again, e.g. after a restart, using
+ * {@link #resubmitPending()}.
+ *
+ * @param <REQUEST> the type of signature job request
+ * @param <RESPONSE> the type of response from the Signature service when creating a job
+ */
+public class JobOutbox<REQUEST, RESPONSE> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobOutbox.class);
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofSeconds(1);
+
+    static final String REQUEST_FILE = "request.xml";
+    static final String DOCUMENT_BUNDLE_FILE = "asice.zip";
+    static final String SENDER_FILE = "sender";
+    static final String REFERENCE_FILE = "reference";
+    static final String RESPONSE_FILE = "response.xml";
+    static final String FAILED_FILE = "failed";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    @FunctionalInterface
+    public interface Sending<REQUEST, RESPONSE> {
+        RESPONSE send(REQUEST request, DocumentBundle documentBundle, Sender sender);
+    }
+
+    private final Path directory;
+    private final Class<REQUEST> requestType;
+    private final Class<RESPONSE> responseType;
+    private final Sending<REQUEST, RESPONSE> sending;
+    private final ScheduledExecutorService executor;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final ConcurrentMap<String, CompletableFuture<RESPONSE>> inFlight = new ConcurrentHashMap<>();
+
+    public JobOutbox(Path directory, Class<REQUEST> requestType, Class<RESPONSE> responseType, Sending<REQUEST, RESPONSE> sending,
+                     ScheduledExecutorService executor, int maxAttempts, Duration initialBackoff) {
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("The outbox path " + directory + (!Files.exists(directory) ? " does not exist" : " is not a valid directory"));
+        }
+        this.directory = directory;
+        this.requestType = requestType;
+        this.responseType = responseType;
+        this.sending = sending;
+        this.executor = executor;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        removeIncompleteEntries();
+    }
+
+    /**
+     * Persist a signature job request in the outbox, and send it asynchronously. If a job with the same reference
+     * has already been created, the persisted response is given instead of sending the job again, and if a job with
+     * the same reference is already being sent, the result of that is given. The document bundle is only created
+     * if the job is not already in the outbox.
+     *
+     * @return the response from the Signature service when the job is created
+     */
+    public CompletableFuture<RESPONSE> submit(String reference, REQUEST request, Supplier<DocumentBundle> documentBundle, Sender sender) {
+        if (reference == null) {
+            throw new IllegalArgumentException("A signature job must have a reference to be sent through an outbox");
+        }
+        Optional<RESPONSE> alreadyCreated = getResponse(reference);
+        if (alreadyCreated.isPresent()) {
+            return CompletableFuture.completedFuture(alreadyCreated.get());
+        }
+        return sendOnce(reference, entry -> {
+            if (Files.exists(entry.resolve(FAILED_FILE))) {
+                deleteRecursively(entry);
+            }
+            if (!Files.isDirectory(entry)) {
+                persist(entry, reference, request, documentBundle.get(), sender);
+            }
+        });
+    }
+
+    /**
+     * Send all jobs in the outbox which have neither been created nor rejected by the Signature service,
+     * typically after a restart.
+     *
+     * @return the responses for each job being sent, keyed by the reference of the job.
+     */
+    public Map<String, CompletableFuture<RESPONSE>> resubmitPending() {
+        Map<String, CompletableFuture<RESPONSE>> resubmitted = new LinkedHashMap<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, path -> Files.isDirectory(path) && !path.getFileName().toString().endsWith(TEMP_SUFFIX))) {
+            for (Path entry : entries) {
+                if (isPending(entry)) {
+                    String reference = new String(Files.readAllBytes(entry.resolve(REFERENCE_FILE)), UTF_8);
+                    resubmitted.put(reference, sendOnce(reference, pendingEntry -> {}));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+        return resubmitted;
+    }
+
+    /**
+     * @return the persisted response for the job with the given reference, if it has been created.
+     */
+    public Optional<RESPONSE> getResponse(String reference) {
+        return readResponse(entryFor(reference));
+    }
+
+
+    private CompletableFuture<RESPONSE> sendOnce(String reference, Consumer<Path> prepareEntry) {
+        CompletableFuture<RESPONSE> response = new CompletableFuture<>();
+        CompletableFuture<RESPONSE> alreadySending = inFlight.putIfAbsent(reference, response);
+        if (alreadySending != null) {
+            return alreadySending;
+        }
+        response.whenComplete((created, failure) -> inFlight.remove(reference, response));
+        try {
+            Path entry = entryFor(reference);
+            prepareEntry.accept(entry);
+            executor.execute(() -> attempt(1, reference, entry, response));
+        } catch (RuntimeException e) {
+            response.completeExceptionally(e);
+        }
+        return response;
+    }
+
+    private void attempt(int attempt, String reference, Path entry, CompletableFuture<RESPONSE> result) {
+        try {
+            Optional<RESPONSE> alreadyCreated = readResponse(entry);
+            if (alreadyCreated.isPresent()) {
+                result.complete(alreadyCreated.get());
+                return;
+            }
+            REQUEST request = readRequest(entry);
+            DocumentBundle documentBundle = new DocumentBundle(Files.readAllBytes(entry.resolve(DOCUMENT_BUNDLE_FILE)));
+            Sender sender = new Sender(new String(Files.readAllBytes(entry.resolve(SENDER_FILE)), UTF_8));
+            RESPONSE response = sending.send(request, documentBundle, sender);
+            writeAtomically(entry.resolve(RESPONSE_FILE), marshal(response));
+            result.complete(response);
+        } catch (RuntimeException | IOException e) {
+            if (e instanceof ClientClosedException || e instanceof CircuitOpenException) {
+                LOG.info("{} before job with reference '{}' was sent from outbox (attempt {} of {}). It remains pending.",
+                        e instanceof ClientClosedException ? "Client closed" : "Circuit open", reference, attempt, maxAttempts);
+                result.completeExceptionally(e);
+            } else if (isNotProcessed(e) && attempt < maxAttempts) {
+                long backoff = initialBackoff.toMillis() << (attempt - 1);
+                LOG.warn("Failed sending job with reference '{}' from outbox (attempt {} of {}), retrying in {} ms. {}: '{}'",
+                        reference, attempt, maxAttempts, backoff, e.getClass().getSimpleName(), e.getMessage());
+                executor.schedule(() -> attempt(attempt + 1, reference, entry, result), backoff, MILLISECONDS);
+            } else if (isTransient(e)) {
+                LOG.warn("Failed sending job with reference '{}' from outbox (attempt {} of {}), and it may have been created. " +
+                        "It remains pending, and is not sent again until resubmitted. {}: '{}'",
+                        reference, attempt, maxAttempts, e.getClass().getSimpleName(), e.getMessage());
+                result.completeExceptionally(e);
+            } else {
+                markAsFailed(entry, e);
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private boolean isPending(Path entry) {
+        return !Files.exists(entry.resolve(RESPONSE_FILE)) && !Files.exists(entry.resolve(FAILED_FILE));
+    }
+
+    private Path entryFor(String reference) {
+        return directory.resolve(sha256Hex(reference));
+    }
+
+    private void persist(Path entry, String reference, REQUEST request, DocumentBundle documentBundle, Sender sender) {
+        Path temp = entry.resolveSibling(entry.getFileName() + TEMP_SUFFIX);
+        try {
+            deleteRecursively(temp);
+            Files.createDirectory(temp);
+            writeDurably(temp.resolve(REQUEST_FILE), marshal(request));
+            writeDurably(temp.resolve(REFERENCE_FILE), reference.getBytes(UTF_8));
+            writeDurably(temp.resolve(SENDER_FILE), sender.getOrganizationNumber().getBytes(UTF_8));
+            try (InputStream bundle = documentBundle.getInputStream(); FileChannel channel = FileChannel.open(temp.resolve(DOCUMENT_BUNDLE_FILE), CREATE_NEW, WRITE)) {
+                byte[] buffer = new byte[64 * 1024];
+                for (int read = bundle.read(buffer); read != -1; read = bundle.read(buffer)) {
+                    ByteBuffer written = ByteBuffer.wrap(buffer, 0, read);
+                    while (written.hasRemaining()) {
+                        channel.write(written);
+                    }
+                }
+                channel.force(true);
+            }
+            Files.move(temp, entry, ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    private void markAsFailed(Path entry, Exception cause) {
+        try {
+            writeAtomically(entry.resolve(FAILED_FILE), (cause.getClass().getName() + ": " + cause.getMessage()).getBytes(UTF_8));
+        } catch (IOException e) {
+            LOG.warn("Unable to mark {} as failed in outbox, because {}: '{}'", entry, e.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
+    private Optional<RESPONSE> readResponse(Path entry) {
+        Path responseFile = entry.resolve(RESPONSE_FILE);
+        if (!Files.exists(responseFile)) {
+            return Optional.empty();
+        }
+        return Optional.of(responseType.cast(SignatureJaxb2Marshaller.ForAllApis.singleton().unmarshal(new StreamSource(responseFile.toFile()))));
+    }
+
+    private REQUEST readRequest(Path entry) {
+        return requestType.cast(SignatureJaxb2Marshaller.ForAllApis.singleton().unmarshal(new StreamSource(entry.resolve(REQUEST_FILE).toFile())));
+    }
+
+    private static byte[] marshal(Object xmlObject) {
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        SignatureJaxb2Marshaller.ForAllApis.singleton().marshal(xmlObject, new StreamResult(xml));
+        return xml.toByteArray();
+    }
+
+    private static void writeAtomically(Path file, byte[] content) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        Files.deleteIfExists(temp);
+        writeDurably(temp, content);
+        Files.move(temp, file, ATOMIC_MOVE);
+    }
+
+    private static void writeDurably(Path file, byte[] content) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, CREATE_NEW, WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    private void removeIncompleteEntries() {
+        try (DirectoryStream<Path> incomplete = Files.newDirectoryStream(directory, "*" + TEMP_SUFFIX)) {
+            for (Path temp : incomplete) {
+                LOG.info("Removing incomplete outbox entry {}", temp);
+                deleteRecursively(temp);
+            }
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    private static void deleteRecursively(Path path) {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> contents = Files.walk(path)) {
+            contents.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException e) {
+                    throw new RuntimeIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,334 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.core.JobState;
+import no.digipost.signature.client.core.exceptions.RuntimeIOException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Stores the {@link JobState state} of signature jobs as fixed size records in a file. Only an index from
+ * job ID to the position of its record is kept in memory, using primitive arrays, so the heap usage is a
+ * few bytes per job, and the records are read from the file when needed.
+ * <p>
+ * A recorded status is regarded as a duplicate if both the job status and the status of each signer
+ * is the same as previously recorded for the job.
+ *
+ * @param <STATUS> the type of job status
+ */
+public final class JobStateFile<STATUS extends Enum<STATUS>> implements Closeable {
+
+    private static final byte[] MAGIC = "SIGJOBS1".getBytes(US_ASCII);
+
+    static final int RECORD_SIZE = 64;
+    private static final int JOB_ID = 0;
+    private static final int FIRST_SEEN = 8;
+    private static final int LAST_CHANGED = 16;
+    private static final int SIGNER_STATUSES_FINGERPRINT = 24;
+    private static final int SIGNERS = 32;
+    private static final int SIGNED = 34;
+    private static final int AWAITING_CONFIRMATION = 36;
+    private static final int STATUS_LENGTH = 37;
+    private static final int STATUS = 38;
+    private static final int MAX_STATUS_LENGTH = RECORD_SIZE - STATUS;
+
+    /**
+     * The status of a single signer, as needed to detect duplicate statuses and count signed signatures.
+     */
+    public static final class SignerState {
+        final String signer;
+        final String status;
+        final boolean signed;
+
+        public SignerState(String signer, String status, boolean signed) {
+            this.signer = signer;
+            this.status = status;
+            this.signed = signed;
+        }
+    }
+
+    private final FileChannel file;
+    private final Class<STATUS> statusType;
+    private final Clock clock;
+    private final LongIntIndex index = new LongIntIndex();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private int records;
+
+    public JobStateFile(Path path, Class<STATUS> statusType, Clock clock) {
+        this.statusType = statusType;
+        this.clock = clock;
+        try {
+            this.file = FileChannel.open(path, CREATE, READ, WRITE);
+            if (file.size() == 0) {
+                file.write(ByteBuffer.wrap(MAGIC), 0);
+            } else {
+                ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+                file.read(magic, 0);
+                if (!Arrays.equals(magic.array(), MAGIC)) {
+                    file.close();
+                    throw new IllegalArgumentException(path + " is not a file with signature job states");
+                }
+            }
+            this.records = (int) ((file.size() - MAGIC.length) / RECORD_SIZE);
+            for (int slot = 0; slot < records; slot++) {
+                readRecord(slot);
+                index.put(record.getLong(JOB_ID), slot);
+            }
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    /**
+     * Record a status for a job.
+     *
+     * @return {@code true} if the status is changed from what has previously been recorded for the job,
+     *         or {@code false} if the status is a duplicate.
+     */
+    public synchronized boolean record(long signatureJobId, STATUS status, List<SignerState> signerStates, boolean mustBeConfirmed) {
+        byte[] statusName = status.name().getBytes(US_ASCII);
+        if (statusName.length > MAX_STATUS_LENGTH) {
+            throw new IllegalArgumentException("The status " + status + " is too long to be recorded");
+        }
+        long fingerprint = fingerprint(signerStates);
+        long now = clock.millis();
+        int slot = index.get(signatureJobId);
+        if (slot >= 0) {
+            readRecord(slot);
+            if (fingerprint == record.getLong(SIGNER_STATUSES_FINGERPRINT) && status == readStatus()) {
+                return false;
+            }
+        } else {
+            slot = records++;
+            Arrays.fill(record.array(), (byte) 0);
+            record.putLong(JOB_ID, signatureJobId);
+            record.putLong(FIRST_SEEN, now);
+            index.put(signatureJobId, slot);
+        }
+        record.putLong(LAST_CHANGED, now);
+        record.putLong(SIGNER_STATUSES_FINGERPRINT, fingerprint);
+        record.putShort(SIGNERS, (short) signerStates.size());
+        record.putShort(SIGNED, (short) signerStates.stream().filter(signer -> signer.signed).count());
+        record.put(AWAITING_CONFIRMATION, (byte) (mustBeConfirmed ? 1 : 0));
+        record.put(STATUS_LENGTH, (byte) statusName.length);
+        for (int i = 0; i < MAX_STATUS_LENGTH; i++) {
+            record.put(STATUS + i, i < statusName.length ? statusName[i] : 0);
+        }
+        writeRecord(slot);
+        return true;
+    }
+
+    /**
+     * Record that the last status of a job has been confirmed.
+     */
+    public synchronized void confirmed(long signatureJobId) {
+        int slot = index.get(signatureJobId);
+        if (slot >= 0) {
+            readRecord(slot);
+            record.put(AWAITING_CONFIRMATION, (byte) 0);
+            writeRecord(slot);
+        }
+    }
+
+    public synchronized Optional<JobState<STATUS>> get(long signatureJobId) {
+        int slot = index.get(signatureJobId);
+        if (slot < 0) {
+            return Optional.empty();
+        }
+        readRecord(slot);
+        return Optional.of(readState());
+    }
+
+    /**
+     * Find all jobs with a recorded state satisfying a predicate, by scanning through the file.
+     */
+    public synchronized List<JobState<STATUS>> find(Predicate<? super JobState<STATUS>> predicate) {
+        List<JobState<STATUS>> found = new ArrayList<>();
+        ByteBuffer block = ByteBuffer.allocate(RECORD_SIZE * 1024);
+        try {
+            for (int slot = 0; slot < records; ) {
+                block.clear();
+                int toRead = Math.min(records - slot, 1024);
+                block.limit(toRead * RECORD_SIZE);
+                long position = MAGIC.length + (long) slot * RECORD_SIZE;
+                while (block.hasRemaining()) {
+                    position += file.read(block, position);
+                }
+                for (int i = 0; i < toRead; i++) {
+                    record.clear();
+                    record.put(block.array(), i * RECORD_SIZE, RECORD_SIZE).clear();
+                    JobState<STATUS> state = readState();
+                    if (predicate.test(state)) {
+                        found.add(state);
+                    }
+                }
+                slot += toRead;
+            }
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+        return found;
+    }
+
+    public synchronized int size() {
+        return records;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+
+    private JobState<STATUS> readState() {
+        return new JobState<>(record.getLong(JOB_ID), readStatus(), record.getShort(SIGNERS), record.getShort(SIGNED),
+                Instant.ofEpochMilli(record.getLong(FIRST_SEEN)), Instant.ofEpochMilli(record.getLong(LAST_CHANGED)),
+                record.get(AWAITING_CONFIRMATION) == 1);
+    }
+
+    private STATUS readStatus() {
+        return Enum.valueOf(statusType, new String(record.array(), STATUS, record.get(STATUS_LENGTH), US_ASCII));
+    }
+
+    private void readRecord(int slot) {
+        record.clear();
+        long position = MAGIC.length + (long) slot * RECORD_SIZE;
+        try {
+            while (record.hasRemaining()) {
+                position += file.read(record, position);
+            }
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+        record.clear();
+    }
+
+    private void writeRecord(int slot) {
+        record.clear();
+        long position = MAGIC.length + (long) slot * RECORD_SIZE;
+        try {
+            while (record.hasRemaining()) {
+                position += file.write(record, position);
+            }
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+        record.clear();
+    }
+
+    private static long fingerprint(List<SignerState> signerStates) {
+        long hash = 0xcbf29ce484222325L;
+        for (SignerState signerState : signerStates) {
+            for (String part : new String[] {signerState.signer, signerState.status}) {
+                String value = String.valueOf(part);
+                for (int i = 0; i < value.length(); i++) {
+                    hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+                }
+                hash = (hash ^ 0xff) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+
+    /**
+     * Open addressing hash index from job ID to record slot, without boxing.
+     */
+    private static final class LongIntIndex {
+
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private long[] keys = newKeys(1024);
+        private int[] values = new int[1024];
+        private int size;
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        void put(long key, int value) {
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            if (insert(keys, values, key, value)) {
+                size++;
+            }
+        }
+
+        private void resize() {
+            long[] newKeys = newKeys(keys.length * 2);
+            int[] newValues = new int[keys.length * 2];
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    insert(newKeys, newValues, keys[i], values[i]);
+                }
+            }
+            keys = newKeys;
+            values = newValues;
+        }
+
+        private static boolean insert(long[] keys, int[] values, long key, int value) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != EMPTY && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            boolean added = keys[i] == EMPTY;
+            keys[i] = key;
+            values[i] = value;
+            return added;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+    }
+
+}
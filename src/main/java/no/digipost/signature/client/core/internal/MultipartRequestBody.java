@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.asice.DocumentBundle;
+import no.digipost.signature.client.core.internal.xml.Marshalling;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static javax.ws.rs.core.MediaType.APPLICATION_OCTET_STREAM;
+import static javax.ws.rs.core.MediaType.APPLICATION_XML;
+
+/**
+ * The multipart body of a request to create a signature job, consisting of the XML request and the
+ * document bundle. The length of the body is known before it is written, so that it can be streamed
+ * with a {@code Content-Length}, instead of being buffered by the HTTP client to determine its length.
+ * The XML request is marshalled once into a buffer, and the document bundle is written from its own content.
+ */
+final class MultipartRequestBody implements StreamingOutput {
+
+    private static final MediaType MULTIPART_MIXED = new MediaType("multipart", "mixed");
+
+    private final String boundary = "Boundary_" + UUID.randomUUID().toString().replace("-", "");
+    private final ByteArrayOutputStream xml = new ByteArrayOutputStream(4096);
+    private final DocumentBundle documentBundle;
+    private final long documentBundleLength;
+    private final byte[] xmlPartStart;
+    private final byte[] documentBundlePartStart;
+    private final byte[] end;
+
+    /**
+     * @param validate whether to validate the XML request against the schema of the Signature API.
+     */
+    MultipartRequestBody(Object signatureJobRequest, DocumentBundle documentBundle, boolean validate) {
+        Marshalling.marshal(signatureJobRequest, xml, validate);
+        this.documentBundle = documentBundle;
+        this.documentBundleLength = documentBundle.size();
+        this.xmlPartStart = ("--" + boundary + "\r\nContent-Type: " + APPLICATION_XML + "\r\n\r\n").getBytes(US_ASCII);
+        this.documentBundlePartStart = ("\r\n--" + boundary + "\r\nContent-Type: " + APPLICATION_OCTET_STREAM + "\r\n\r\n").getBytes(US_ASCII);
+        this.end = ("\r\n--" + boundary + "--\r\n").getBytes(US_ASCII);
+    }
+
+    MediaType getMediaType() {
+        return new MediaType(MULTIPART_MIXED.getType(), MULTIPART_MIXED.getSubtype(), Collections.singletonMap("boundary", boundary));
+    }
+
+    long getContentLength() {
+        return xmlPartStart.length + xml.size() + documentBundlePartStart.length + documentBundleLength + end.length;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        output.write(xmlPartStart);
+        xml.writeTo(output);
+        output.write(documentBundlePartStart);
+        documentBundle.writeTo(output);
+        output.write(end);
+    }
+
+}
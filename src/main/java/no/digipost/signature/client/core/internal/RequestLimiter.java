@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.RequestLimits;
+import no.digipost.signature.client.core.Operation;
+import no.digipost.signature.client.core.Sender;
+import no.digipost.signature.client.core.exceptions.DeadlineExceededException;
+import no.digipost.signature.client.core.exceptions.SignatureException;
+
+import java.util.Optional;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+import static javax.ws.rs.core.Response.Status.TOO_MANY_REQUESTS;
+
+/**
+ * Applies the configured {@link RequestLimits} separately for each {@link Operation}, {@link Target}
+ * and {@link Sender}, so that e.g. slow uploads of document bundles when creating jobs are not taken as
+ * signs of congestion by the limit for polling, and polling does not use up the rate permitted for creating jobs.
+ */
+final class RequestLimiter {
+
+    static final RequestLimiter UNLIMITED = new RequestLimiter(sender -> RequestLimits.NONE);
+
+    /**
+     * A permit to send a request, which must be {@link #release(boolean) released} when the
+     * response is received, or the request fails.
+     */
+    interface Permit {
+        Permit NONE = overloaded -> {};
+
+        /**
+         * @param overloaded if the request failed, or the service responded that it is overloaded.
+         */
+        void release(boolean overloaded);
+    }
+
+    static boolean isOverloaded(int responseStatus) {
+        return responseStatus == TOO_MANY_REQUESTS.getStatusCode() || responseStatus == SERVICE_UNAVAILABLE.getStatusCode();
+    }
+
+    private final Function<? super Sender, RequestLimits> limitsForSender;
+    private final ConcurrentMap<String, Limits> limits = new ConcurrentHashMap<>();
+
+    RequestLimiter(Function<? super Sender, RequestLimits> limitsForSender) {
+        this.limitsForSender = limitsForSender;
+    }
+
+    Permit acquire(Operation operation, Target target, Sender sender) {
+        return acquire(operation, target, sender, Optional.empty());
+    }
+
+    /**
+     * @param deadline if present, when to stop waiting for a permit.
+     * @throws DeadlineExceededException if no permit is available before the deadline.
+     */
+    Permit acquire(Operation operation, Target target, Sender sender, Optional<Deadline> deadline) {
+        Limits limits = limits(operation, target, sender);
+        try {
+            return limits.acquire(deadline).orElseThrow(() -> new DeadlineExceededException(operation));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SignatureException("Interrupted while waiting for permit to send request for " + target + " jobs of " + sender.getOrganizationNumber(), e);
+        }
+    }
+
+
+    /**
+     * @return the current concurrency limit, or {@code -1} if concurrency is not limited.
+     */
+    int getConcurrencyLimit(Operation operation, Target target, Sender sender) {
+        AdaptiveConcurrencyLimit concurrency = limits(operation, target, sender).concurrency;
+        return concurrency != null ? concurrency.getLimit() : -1;
+    }
+
+    private Limits limits(Operation operation, Target target, Sender sender) {
+        return limits.computeIfAbsent(operation + "/" + target + "/" + sender.getOrganizationNumber(), key -> new Limits(limitsForSender.apply(sender)));
+    }
+
+
+    private static final class Limits {
+
+        private final TokenBucket rate;
+        private final AdaptiveConcurrencyLimit concurrency;
+
+        Limits(RequestLimits limits) {
+            this.rate = limits.isRateLimited() ? new TokenBucket(limits.getMaxRequestsPerSecond(), limits.getBurst()) : null;
+            this.concurrency = limits.isConcurrencyLimited() ? new AdaptiveConcurrencyLimit(limits.getInitialConcurrency(), limits.getMaxConcurrency()) : null;
+        }
+
+        Optional<Permit> acquire(Optional<Deadline> deadline) throws InterruptedException {
+            if (rate != null) {
+                if (deadline.isPresent()) {
+                    if (!rate.tryAcquire(deadline.get().remaining().toNanos())) {
+                        return Optional.empty();
+                    }
+                } else {
+                    rate.acquire();
+                }
+            }
+            if (concurrency == null) {
+                return Optional.of(Permit.NONE);
+            }
+            if (deadline.isPresent()) {
+                if (!concurrency.tryAcquire(deadline.get())) {
+                    return Optional.empty();
+                }
+            } else {
+                concurrency.acquire();
+            }
+            long started = System.nanoTime();
+            return Optional.of(overloaded -> concurrency.release(System.nanoTime() - started, overloaded));
+        }
+    }
+
+}
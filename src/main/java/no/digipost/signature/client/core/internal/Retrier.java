@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.RetryPolicy;
+import no.digipost.signature.client.core.Operation;
+import no.digipost.signature.client.core.RetryStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static no.digipost.signature.client.core.internal.TransientFailures.isNotProcessed;
+import static no.digipost.signature.client.core.internal.TransientFailures.isTransient;
+
+/**
+ * Performs {@link Operation operations}, retrying failed attempts according to a {@link RetryPolicy}.
+ */
+final class Retrier {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Retrier.class);
+
+    /**
+     * The retries available regardless of how many operations have been performed, and the
+     * maximum number of retries which may be saved up.
+     */
+    private static final double MIN_BUDGET = 10;
+    private static final double MAX_BUDGET = 100;
+
+    private final RetryPolicy policy;
+    private final Map<Operation, Counters> counters = new EnumMap<>(Operation.class);
+    private double budget = MIN_BUDGET;
+
+    Retrier(RetryPolicy policy) {
+        this.policy = policy;
+        for (Operation operation : Operation.values()) {
+            counters.put(operation, new Counters());
+        }
+    }
+
+    <T> T call(Operation operation, Supplier<T> attempt) {
+        Counters counters = this.counters.get(operation);
+        counters.calls.incrementAndGet();
+        deposit();
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            try {
+                return attempt.get();
+            } catch (RuntimeException e) {
+                if (attemptNumber >= policy.getMaxAttempts() || !isRetryable(operation, e)) {
+                    counters.failures.incrementAndGet();
+                    throw e;
+                } else if (!withdraw()) {
+                    counters.retriesDeniedByBudget.incrementAndGet();
+                    counters.failures.incrementAndGet();
+                    throw e;
+                }
+                long backoff = backoffMillis(attemptNumber);
+                LOG.info("Failed {} (attempt {} of {}), retrying in {} ms. {}: '{}'",
+                        operation, attemptNumber, policy.getMaxAttempts(), backoff, e.getClass().getSimpleName(), e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    counters.failures.incrementAndGet();
+                    throw e;
+                }
+                counters.retries.incrementAndGet();
+            }
+        }
+    }
+
+    RetryStatistics statistics(Operation operation) {
+        Counters counters = this.counters.get(operation);
+        return new RetryStatistics(operation, counters.calls.get(), counters.retries.get(), counters.retriesDeniedByBudget.get(), counters.failures.get());
+    }
+
+    private static boolean isRetryable(Operation operation, RuntimeException failure) {
+        return operation.isIdempotent() ? isTransient(failure) : isNotProcessed(failure);
+    }
+
+    /**
+     * Full jitter: a random delay up to the exponentially increasing backoff.
+     */
+    private long backoffMillis(int attemptNumber) {
+        long cap = Math.min(policy.getMaxBackoff().toMillis(), policy.getInitialBackoff().toMillis() << Math.min(attemptNumber - 1, 20));
+        return cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private synchronized void deposit() {
+        budget = Math.min(MAX_BUDGET, budget + policy.getRetryBudgetRatio());
+    }
+
+    private synchronized boolean withdraw() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+
+    private static final class Counters {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong retriesDeniedByBudget = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical calls, so that only the first caller performs the call, while the
+ * callers arriving before it completes wait for, and share, its result.
+ *
+ * @param <K> the type of key identifying identical calls.
+ * @param <V> the type of result.
+ */
+final class SingleFlight<K, V> {
+
+    private static final class Flight<V> {
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        final AtomicInteger callers = new AtomicInteger();
+    }
+
+    private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    V call(K key, Supplier<V> call) {
+        return call(key, call, Function.identity(), result -> {});
+    }
+
+    /**
+     * Perform a call, or share the result of an identical call in progress.
+     *
+     * @param open how each caller gets its own view of the shared result, e.g. a stream.
+     * @param release what to do with the shared result when every caller has {@code opened} it.
+     */
+    <R> R call(K key, Supplier<V> call, Function<? super V, R> open, Consumer<? super V> release) {
+        boolean[] first = {false};
+        Flight<V> flight = flights.compute(key, (k, inProgress) -> {
+            Flight<V> joined = inProgress != null ? inProgress : new Flight<>();
+            first[0] = inProgress == null;
+            joined.callers.incrementAndGet();
+            return joined;
+        });
+        if (first[0]) {
+            try {
+                V result = call.get();
+                flights.remove(key, flight);
+                flight.result.complete(result);
+            } catch (RuntimeException | Error e) {
+                flights.remove(key, flight);
+                flight.result.completeExceptionally(e);
+                throw e;
+            }
+        }
+        V result;
+        try {
+            result = flight.result.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+        try {
+            return open.apply(result);
+        } finally {
+            // the flight is no longer joinable when completed, so the last caller to open it knows it is the last
+            if (flight.callers.decrementAndGet() == 0) {
+                release.accept(result);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.core.exceptions.RuntimeIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * A downloaded document spooled to a temporary file, so that it can be read by several readers,
+ * each with its own stream. The file is deleted when it is {@link #release() released}, and all the
+ * streams are closed.
+ */
+final class SpooledDocument {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpooledDocument.class);
+
+    static SpooledDocument spool(InputStream document) {
+        Path file = null;
+        try (InputStream download = document) {
+            file = Files.createTempFile("signature-document-", ".tmp");
+            Files.copy(download, file, REPLACE_EXISTING);
+            return new SpooledDocument(file);
+        } catch (IOException e) {
+            if (file != null) {
+                delete(file);
+            }
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    private final Path file;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private SpooledDocument(Path file) {
+        this.file = file;
+    }
+
+    InputStream open() {
+        references.incrementAndGet();
+        try {
+            return new FilterInputStream(Files.newInputStream(file)) {
+                private final AtomicBoolean closed = new AtomicBoolean(false);
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if (closed.compareAndSet(false, true)) {
+                            release();
+                        }
+                    }
+                }
+            };
+        } catch (IOException e) {
+            release();
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    /**
+     * Release the reference held by the creator of the document, to delete the file when all the
+     * streams are closed.
+     */
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            delete(file);
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Unable to delete spooled document {}. {}: '{}'", file, e.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
+}
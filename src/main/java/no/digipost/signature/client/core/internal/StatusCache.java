@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * A small least recently used cache of status responses, keyed by the status URL. A cached status
+ * is fresh for a limited time, and when no longer fresh, it may still be revalidated with the service
+ * using its {@code ETag}, if the service provided one.
+ *
+ * @param <RESPONSE> the type of status response.
+ */
+final class StatusCache<RESPONSE> {
+
+    static final class Entry<RESPONSE> {
+        final RESPONSE response;
+        final Optional<String> eTag;
+        private volatile long expiresAt;
+
+        private Entry(RESPONSE response, Optional<String> eTag, long expiresAt) {
+            this.response = response;
+            this.eTag = eTag;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isFresh() {
+            return expiresAt - System.nanoTime() > 0;
+        }
+    }
+
+    private final int maxEntries;
+    private final long timeToLiveNanos;
+    private final Function<? super RESPONSE, String> confirmationUrl;
+    private final Map<String, Entry<RESPONSE>> entries;
+
+    /**
+     * @param confirmationUrl the URL used to confirm a status response, which is used to
+     *                        {@link #invalidateConfirmed(String) invalidate} the status when confirmed.
+     */
+    StatusCache(int maxEntries, Duration timeToLive, Function<? super RESPONSE, String> confirmationUrl) {
+        this.maxEntries = maxEntries;
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.confirmationUrl = confirmationUrl;
+        this.entries = new LinkedHashMap<String, Entry<RESPONSE>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<RESPONSE>> eldest) {
+                return size() > StatusCache.this.maxEntries;
+            }
+        };
+    }
+
+    boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    synchronized Optional<Entry<RESPONSE>> get(String statusUrl) {
+        return Optional.ofNullable(entries.get(statusUrl));
+    }
+
+    synchronized void put(String statusUrl, RESPONSE response, Optional<String> eTag) {
+        if (isEnabled()) {
+            entries.put(statusUrl, new Entry<>(response, eTag, System.nanoTime() + timeToLiveNanos));
+        }
+    }
+
+    /**
+     * Make a cached status fresh again, when the service has responded that it is not modified.
+     */
+    void revalidated(Entry<RESPONSE> entry) {
+        entry.expiresAt = System.nanoTime() + timeToLiveNanos;
+    }
+
+    /**
+     * Remove the cached status which is confirmed using the given URL, as the status of a job
+     * may change, or become unavailable, when confirmed.
+     */
+    synchronized void invalidateConfirmed(String confirmationUrl) {
+        for (Iterator<Entry<RESPONSE>> cached = entries.values().iterator(); cached.hasNext(); ) {
+            if (Objects.equals(this.confirmationUrl.apply(cached.next().response), confirmationUrl)) {
+                cached.remove();
+            }
+        }
+    }
+
+}
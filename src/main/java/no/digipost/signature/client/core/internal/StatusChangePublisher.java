@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.core.exceptions.ClientClosedException;
+import no.digipost.signature.client.core.exceptions.TooEagerPollingException;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * A {@link Publisher} which polls the Signature service for status changes <em>on demand</em>,
+ * i.e. only while its {@link Subscriber} has signalled demand for more elements.
+ * <p>
+ * Each subscription is driven by its own daemon thread, which is released when the subscription
+ * is cancelled or terminated by an error. When the service reports no changes, the next poll is
+ * delayed by {@link #DEFAULT_IDLE_DELAY}, and when the service rejects a poll with
+ * {@link TooEagerPollingException}, the next poll is delayed until the
+ * {@link TooEagerPollingException#getNextPermittedPollTime() permitted poll time}.
+ * <p>
+ * The publisher completes its subscriptions only when {@link #close(Deadline) closed}, i.e. when the client
+ * is closed, and any other exception from polling terminates the subscription with
+ * {@link Subscriber#onError(Throwable) onError}.
+ *
+ * @param <STATUS> the type of status changes published
+ */
+public class StatusChangePublisher<STATUS> implements Publisher<STATUS> {
+
+    /**
+     * The delay before polling again after the service has reported no status changes.
+     */
+    public static final Duration DEFAULT_IDLE_DELAY = Duration.ofSeconds(30);
+
+    private final Supplier<STATUS> pollForStatusChange;
+    private final Predicate<? super STATUS> isNoChanges;
+    private final Clock clock;
+    private final Duration idleDelay;
+    private final Set<PollingSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    public StatusChangePublisher(Supplier<STATUS> pollForStatusChange, Predicate<? super STATUS> isNoChanges, Clock clock) {
+        this(pollForStatusChange, isNoChanges, clock, DEFAULT_IDLE_DELAY);
+    }
+
+    StatusChangePublisher(Supplier<STATUS> pollForStatusChange, Predicate<? super STATUS> isNoChanges, Clock clock, Duration idleDelay) {
+        this.pollForStatusChange = pollForStatusChange;
+        this.isNoChanges = isNoChanges;
+        this.clock = clock;
+        this.idleDelay = idleDelay;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super STATUS> subscriber) {
+        requireNonNull(subscriber, "subscriber");
+        if (closed) {
+            subscriber.onSubscribe(CLOSED);
+            subscriber.onError(new ClientClosedException());
+            return;
+        }
+        PollingSubscription subscription = new PollingSubscription(subscriber);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Stop polling for all subscriptions, letting any poll in progress complete, and then signal
+     * {@link Subscriber#onComplete() completion} to the subscribers. Subscriptions with a poll which
+     * does not complete before the deadline are interrupted, and not signalled.
+     */
+    public void close(Deadline deadline) {
+        closed = true;
+        List<PollingSubscription> closing = new ArrayList<>();
+        for (PollingSubscription subscription : subscriptions) {
+            if (subscription.terminate()) {
+                closing.add(subscription);
+            }
+        }
+        for (PollingSubscription subscription : closing) {
+            try {
+                if (subscription.scheduler.awaitTermination(deadline.remaining().toMillis(), MILLISECONDS)) {
+                    subscription.subscriber.onComplete();
+                } else {
+                    subscription.scheduler.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                subscription.scheduler.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final Subscription CLOSED = new Subscription() {
+        @Override
+        public void request(long n) { }
+
+        @Override
+        public void cancel() { }
+    };
+
+
+    private final class PollingSubscription implements Subscription {
+
+        private final Subscriber<? super STATUS> subscriber;
+        private final ScheduledThreadPoolExecutor scheduler;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicBoolean pollScheduled = new AtomicBoolean();
+        private volatile boolean terminated;
+
+        PollingSubscription(Subscriber<? super STATUS> subscriber) {
+            this.subscriber = subscriber;
+            this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread pollingThread = new Thread(runnable, "signature-status-poller");
+                pollingThread.setDaemon(true);
+                return pollingThread;
+            });
+            this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+
+        @Override
+        public void request(long n) {
+            if (terminated) {
+                return;
+            }
+            if (n <= 0) {
+                if (terminate()) {
+                    subscriber.onError(new IllegalArgumentException("Requested " + n + " status changes, but must request a positive number (rule 3.9)"));
+                }
+                return;
+            }
+            demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            schedulePoll(0);
+        }
+
+        @Override
+        public void cancel() {
+            terminate();
+        }
+
+        private void schedulePoll(long delayMillis) {
+            if (!terminated && demand.get() > 0 && pollScheduled.compareAndSet(false, true)) {
+                scheduler.schedule(this::poll, delayMillis, MILLISECONDS);
+            }
+        }
+
+        private void poll() {
+            if (terminated) {
+                return;
+            }
+            long nextPollDelay = 0;
+            try {
+                STATUS status = pollForStatusChange.get();
+                if (isNoChanges.test(status)) {
+                    nextPollDelay = idleDelay.toMillis();
+                } else if (!terminated) {
+                    demand.decrementAndGet();
+                    subscriber.onNext(status);
+                }
+            } catch (TooEagerPollingException e) {
+                nextPollDelay = Math.max(0, Duration.between(clock.instant(), e.getNextPermittedPollTime()).toMillis());
+            } catch (RuntimeException e) {
+                if (terminate()) {
+                    subscriber.onError(e);
+                }
+                return;
+            }
+            pollScheduled.set(false);
+            schedulePoll(nextPollDelay);
+        }
+
+        /**
+         * @return {@code true} if the subscription was terminated by this call, or {@code false}
+         *         if it was already terminated.
+         */
+        private boolean terminate() {
+            synchronized (this) {
+                if (terminated) {
+                    return false;
+                }
+                terminated = true;
+            }
+            scheduler.shutdown();
+            subscriptions.remove(this);
+            return true;
+        }
+    }
+
+}
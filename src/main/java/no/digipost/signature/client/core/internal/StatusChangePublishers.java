@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * The {@link StatusChangePublisher publishers} created by a client, which are closed when the client is
+ * closed. Publishers are only weakly referenced, as a publisher with a subscription in progress is
+ * referenced by its polling thread, and others may be discarded by the application.
+ */
+public final class StatusChangePublishers {
+
+    private final Set<StatusChangePublisher<?>> publishers = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    public <STATUS> StatusChangePublisher<STATUS> register(StatusChangePublisher<STATUS> publisher) {
+        publishers.add(publisher);
+        return publisher;
+    }
+
+    public void close(Deadline deadline) {
+        List<StatusChangePublisher<?>> closing;
+        synchronized (publishers) {
+            closing = new ArrayList<>(publishers);
+        }
+        closing.forEach(publisher -> publisher.close(deadline));
+    }
+
+}
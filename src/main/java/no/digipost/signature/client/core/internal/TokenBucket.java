@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Permits a sustained rate of acquisitions, with bursts up to a given size. A caller acquiring
+ * when there are no tokens left reserves the next token, and waits until it is available.
+ */
+final class TokenBucket {
+
+    private final double tokensPerNano;
+    private final int burst;
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(double tokensPerSecond, int burst) {
+        this.tokensPerNano = tokensPerSecond / SECONDS.toNanos(1);
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    void acquire() throws InterruptedException {
+        NANOSECONDS.sleep(reserve());
+    }
+
+    /**
+     * Acquire a token, if it is available within the given time.
+     *
+     * @return {@code true} if a token was acquired, or {@code false}, without reserving a token,
+     *         if it would not be available in time.
+     */
+    boolean tryAcquire(long maxWaitNanos) throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            wait = reserve();
+            if (wait > maxWaitNanos) {
+                tokens += 1;
+                return false;
+            }
+        }
+        NANOSECONDS.sleep(wait);
+        return true;
+    }
+
+    /**
+     * Reserve a token.
+     *
+     * @return the nanoseconds to wait until the reserved token is available.
+     */
+    synchronized long reserve() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+    }
+
+}
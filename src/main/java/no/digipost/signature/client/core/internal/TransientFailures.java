@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.core.exceptions.UnexpectedResponseException;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.Response.StatusType;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+
+import static javax.ws.rs.core.Response.Status.Family.SERVER_ERROR;
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+import static javax.ws.rs.core.Response.Status.TOO_MANY_REQUESTS;
+
+final class TransientFailures {
+
+    /**
+     * Determine if a failure from communicating with the Signature service may be transient, i.e. that
+     * the same request may succeed if retried. This is the case for I/O errors and errors on the server.
+     */
+    static boolean isTransient(Throwable failure) {
+        if (failure instanceof UnexpectedResponseException) {
+            return ((UnexpectedResponseException) failure).getActualStatus().getFamily() == SERVER_ERROR;
+        }
+        return failure instanceof ProcessingException || failure instanceof IOException;
+    }
+
+    /**
+     * Determine if a failure from communicating with the Signature service is known to have happened
+     * before the request was processed by the service, i.e. that the request was never received, or was
+     * rejected by the service because it is overloaded. It is then safe to retry even requests which are not
+     * idempotent.
+     */
+    static boolean isNotProcessed(Throwable failure) {
+        if (failure instanceof UnexpectedResponseException) {
+            StatusType status = ((UnexpectedResponseException) failure).getActualStatus();
+            return status.getStatusCode() == SERVICE_UNAVAILABLE.getStatusCode() || status.getStatusCode() == TOO_MANY_REQUESTS.getStatusCode();
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof UnknownHostException || cause instanceof NoRouteToHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private TransientFailures() { }
+}
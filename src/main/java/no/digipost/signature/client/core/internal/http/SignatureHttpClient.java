@@ -17,10 +17,31 @@ package no.digipost.signature.client.core.internal.http;
 
 import javax.ws.rs.client.WebTarget;
 
-public interface SignatureHttpClient {
+/**
+ * A reference to an HTTP client for the Signature service. The underlying client, with its connection
+ * pool and TLS sessions, may be {@link #share() shared} by several {@link no.digipost.signature.client.direct.DirectClient
+ * DirectClients} and {@link no.digipost.signature.client.portal.PortalClient PortalClients}, and is closed
+ * when every reference to it has been {@link #close() closed}.
+ */
+public interface SignatureHttpClient extends AutoCloseable {
 
     WebTarget signatureServiceRoot();
 
     WebTarget target(String url);
 
+    /**
+     * Get a new reference to the same underlying HTTP client, which must be {@link #close() closed}
+     * independently of this reference.
+     *
+     * @throws IllegalStateException if this reference has been closed.
+     */
+    SignatureHttpClient share();
+
+    /**
+     * Close this reference to the HTTP client. If this is the last open reference, the underlying
+     * HTTP client is closed. Closing a reference more than once has no effect.
+     */
+    @Override
+    void close();
+
 }
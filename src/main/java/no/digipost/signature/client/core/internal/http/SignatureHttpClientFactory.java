@@ -22,39 +22,92 @@ import javax.ws.rs.client.Client;
 import javax.ws.rs.client.WebTarget;
 
 import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SignatureHttpClientFactory {
 
-
+    /**
+     * Create a new HTTP client for the Signature service. The returned reference may be
+     * {@link SignatureHttpClient#share() shared}, and the client is closed when all references
+     * have been {@link SignatureHttpClient#close() closed}.
+     */
     public static SignatureHttpClient create(HttpIntegrationConfiguration config) {
         Client jerseyClient = JerseyClientBuilder.newBuilder()
                 .withConfig(config.getJaxrsConfiguration())
                 .sslContext(config.getSSLContext())
                 .hostnameVerifier(NoopHostnameVerifier.INSTANCE)
                 .build();
-        return new DefaultClient(jerseyClient, config.getServiceRoot());
+        return new Reference(new SharedClient(jerseyClient, config.getServiceRoot()));
     }
 
 
 
-    private static final class DefaultClient implements SignatureHttpClient {
+    private static final class SharedClient {
 
         private final Client jerseyClient;
         private final WebTarget signatureServiceRoot;
+        private final AtomicInteger references = new AtomicInteger(1);
 
-        DefaultClient(Client jerseyClient, URI root) {
+        SharedClient(Client jerseyClient, URI root) {
             this.jerseyClient = jerseyClient;
             this.signatureServiceRoot = jerseyClient.target(root);
         }
 
+        void acquire() {
+            int current;
+            do {
+                current = references.get();
+                if (current == 0) {
+                    throw new IllegalStateException("The HTTP client has been closed");
+                }
+            } while (!references.compareAndSet(current, current + 1));
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                jerseyClient.close();
+            }
+        }
+    }
+
+    private static final class Reference implements SignatureHttpClient {
+
+        private final SharedClient client;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        Reference(SharedClient client) {
+            this.client = client;
+        }
+
         @Override
         public WebTarget target(String uri) {
-            return jerseyClient.target(uri);
+            return open().jerseyClient.target(uri);
         }
 
         @Override
         public WebTarget signatureServiceRoot() {
-            return signatureServiceRoot;
+            return open().signatureServiceRoot;
+        }
+
+        @Override
+        public SignatureHttpClient share() {
+            open().acquire();
+            return new Reference(client);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                client.release();
+            }
+        }
+
+        private SharedClient open() {
+            if (closed.get()) {
+                throw new IllegalStateException("This reference to the HTTP client has been closed");
+            }
+            return client;
         }
 
     }
@@ -18,65 +18,78 @@ package no.digipost.signature.client.core.internal.security;
 import no.digipost.signature.client.Certificates;
 import no.digipost.signature.client.core.exceptions.ConfigurationException;
 
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManagerFactory;
-
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
-import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.Collections.unmodifiableMap;
 
+/**
+ * Builds trust stores from the certificates in the configured certificate paths. The certificates
+ * bundled on the classpath, which can not change while the application runs, are parsed only once, and
+ * the parsed certificates are shared by all trust stores built with the same path. Certificates in
+ * folders on the file system are read each time a trust store is built, so that certificates which are
+ * rotated or added in a folder are used by clients configured after the change.
+ */
 public class TrustStoreLoader {
 
+    private static final ConcurrentMap<String, Map<String, X509Certificate>> PARSED_CLASSPATH_CERTIFICATES = new ConcurrentHashMap<>();
+
     public static KeyStore build(ProvidesCertificateResourcePaths hasCertificatePaths) {
         try {
             KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
             trustStore.load(null, null);
 
             for (String certificateFolder : hasCertificatePaths.getCertificatePaths()) {
-                loadCertificatesInto(certificateFolder, trustStore);
+                for (Map.Entry<String, X509Certificate> certificate : certificatesIn(certificateFolder).entrySet()) {
+                    trustStore.setCertificateEntry(certificate.getKey(), certificate.getValue());
+                }
             }
 
             return trustStore;
-        } catch (KeyStoreException | CertificateException | NoSuchAlgorithmException | IOException | KeyManagementException e) {
+        } catch (KeyStoreException | CertificateException | NoSuchAlgorithmException | IOException e) {
             throw new ConfigurationException("Unable to load certificates into truststore", e);
         }
     }
 
-    private static void loadCertificatesInto(String certificateFolder, final KeyStore trustStore) throws IOException, CertificateException, KeyStoreException, NoSuchAlgorithmException, KeyManagementException {
-        ResourceLoader certificateLoader;
-        if (certificateFolder.indexOf("classpath:") == 0) {
-            certificateLoader = new ClassPathFileLoader(certificateFolder);
+    private static Map<String, X509Certificate> certificatesIn(String certificateFolder) {
+        if (certificateFolder.indexOf(ClassPathFileLoader.CLASSPATH_PATH_PREFIX) == 0) {
+            return PARSED_CLASSPATH_CERTIFICATES.computeIfAbsent(certificateFolder, folder -> parseCertificates(folder, new ClassPathFileLoader(folder)));
         } else {
-            certificateLoader = new FileLoader(certificateFolder);
+            return parseCertificates(certificateFolder, new FileLoader(certificateFolder));
         }
+    }
 
-        certificateLoader.forEachFile(new ForFile() {
-            @Override
-            void call(String fileName, InputStream contents) {
-                try {
-                    X509Certificate ca = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(contents);
-                    trustStore.setCertificateEntry(fileName, ca);
-                } catch (CertificateException | KeyStoreException e) {
-                    throw new ConfigurationException("Unable to load certificate in " + fileName);
+    private static Map<String, X509Certificate> parseCertificates(String certificateFolder, ResourceLoader certificateLoader) {
+        try {
+            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+            Map<String, X509Certificate> certificates = new LinkedHashMap<>();
+            certificateLoader.forEachFile(new ForFile() {
+                @Override
+                void call(String fileName, InputStream contents) {
+                    try {
+                        certificates.put(fileName, (X509Certificate) certificateFactory.generateCertificate(contents));
+                    } catch (CertificateException e) {
+                        throw new ConfigurationException("Unable to load certificate in " + fileName);
+                    }
                 }
-            }
-        });
-
-
-        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-        tmf.init(trustStore);
-
-        SSLContext context = SSLContext.getInstance("TLS");
-        context.init(null, tmf.getTrustManagers(), null);
+            });
+            return unmodifiableMap(certificates);
+        } catch (CertificateException | IOException e) {
+            throw new ConfigurationException("Unable to load certificates from " + certificateFolder, e);
+        }
     }
 
     private static class ClassPathFileLoader implements ResourceLoader {
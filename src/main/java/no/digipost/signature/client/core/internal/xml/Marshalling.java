@@ -15,23 +15,77 @@
  */
 package no.digipost.signature.client.core.internal.xml;
 
+import no.digipost.signature.client.core.exceptions.XmlConfigurationException;
+import no.digipost.signature.client.core.exceptions.XmlValidationException;
 import no.digipost.signature.jaxb.spring.SignatureJaxb2Marshaller;
 
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public final class Marshalling {
 
+    /**
+     * Marshallers without schema validation, which are not thread-safe, and thus pooled for reuse
+     * instead of being created for each request.
+     */
+    private static final Queue<Marshaller> UNVALIDATED_MARSHALLERS = new ConcurrentLinkedQueue<>();
+
     public static void marshal(Object object, OutputStream entityStream) {
-        SignatureJaxb2Marshaller.ForRequestsOfAllApis.singleton().marshal(object, new StreamResult(entityStream));
+        marshal(object, entityStream, true);
+    }
+
+    /**
+     * @param validate whether to validate the XML against the schemas of the Signature API. Without
+     *                 validation, the XML is written directly to the stream by a pooled marshaller.
+     */
+    public static void marshal(Object object, OutputStream entityStream, boolean validate) {
+        if (validate) {
+            SignatureJaxb2Marshaller.ForRequestsOfAllApis.singleton().marshal(object, new StreamResult(entityStream));
+            return;
+        }
+        Marshaller marshaller = Optional.ofNullable(UNVALIDATED_MARSHALLERS.poll()).orElseGet(Marshalling::createUnvalidatedMarshaller);
+        try {
+            marshaller.marshal(object, entityStream);
+        } catch (JAXBException e) {
+            throw new XmlValidationException("Unable to marshal " + object.getClass().getSimpleName(), e);
+        } finally {
+            UNVALIDATED_MARSHALLERS.offer(marshaller);
+        }
     }
 
     public static Object unmarshal(InputStream entityStream) {
         return SignatureJaxb2Marshaller.ForResponsesOfAllApis.singleton().unmarshal(new StreamSource(entityStream));
     }
 
+    /**
+     * Initialize the request and response marshallers, which are otherwise initialized when marshalling
+     * the first request and unmarshalling the first response.
+     *
+     * @param sampleRequest a request which is marshalled and discarded.
+     */
+    public static void warmUp(Object sampleRequest) {
+        marshal(sampleRequest, new ByteArrayOutputStream(), true);
+        marshal(sampleRequest, new ByteArrayOutputStream(), false);
+        SignatureJaxb2Marshaller.ForResponsesOfAllApis.singleton().getJaxbContext();
+    }
+
+    private static Marshaller createUnvalidatedMarshaller() {
+        try {
+            return SignatureJaxb2Marshaller.ForRequestsOfAllApis.singleton().getJaxbContext().createMarshaller();
+        } catch (JAXBException e) {
+            throw new XmlConfigurationException("Unable to create marshaller for requests", e);
+        }
+    }
+
     private Marshalling() { }
 }
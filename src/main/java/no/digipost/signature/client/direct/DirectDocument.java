@@ -15,12 +15,13 @@
  */
 package no.digipost.signature.client.direct;
 
+import no.digipost.signature.client.asice.DocumentSource;
 import no.digipost.signature.client.core.Document;
 
 import static no.digipost.signature.client.core.Document.FileType.PDF;
 
 public class DirectDocument extends Document {
-    private DirectDocument(String title, String message, String fileName, FileType fileType, byte[] document) {
+    private DirectDocument(String title, String message, String fileName, FileType fileType, DocumentSource document) {
         super(title, message, fileName, fileType, document);
     }
 
@@ -28,15 +29,28 @@ public class DirectDocument extends Document {
         return new Builder(title, fileName, document);
     }
 
+    /**
+     * Create a document with content from a {@link DocumentSource}, e.g. a
+     * {@link DocumentSource#mapped(java.nio.file.Path) memory-mapped file}, which need not be loaded
+     * into memory as a {@code byte[]}.
+     */
+    public static Builder builder(final String title, final String fileName, final DocumentSource document) {
+        return new Builder(title, fileName, document);
+    }
+
     public static class Builder {
 
         private String title;
         private String fileName;
-        private byte[] document;
+        private DocumentSource document;
         private String message;
         private FileType fileType = PDF;
 
         public Builder(final String title, final String fileName, final byte[] document) {
+            this(title, fileName, DocumentSource.of(document));
+        }
+
+        public Builder(final String title, final String fileName, final DocumentSource document) {
             this.title = title;
             this.fileName = fileName;
             this.document = document;
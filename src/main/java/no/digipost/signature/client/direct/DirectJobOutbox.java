@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.direct;
+
+import no.digipost.signature.api.xml.XMLDirectSignatureJobRequest;
+import no.digipost.signature.api.xml.XMLDirectSignatureJobResponse;
+import no.digipost.signature.client.asice.DocumentBundle;
+import no.digipost.signature.client.core.internal.JobOutbox;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static java.util.stream.Collectors.toMap;
+import static no.digipost.signature.client.core.internal.JobOutbox.DEFAULT_INITIAL_BACKOFF;
+import static no.digipost.signature.client.core.internal.JobOutbox.DEFAULT_MAX_ATTEMPTS;
+
+/**
+ * An outbox which persists {@link DirectJob direct signature jobs} to disk before they are sent to the
+ * Signature service, and which sends them asynchronously. The response from the service is persisted as well,
+ * so that it is known which jobs have been created, even if the application is restarted while jobs are being sent.
+ * <p>
+ * Jobs are identified in the outbox by their {@link DirectJob.Builder#withReference(String) reference}, which
+ * then is required, and should be unique. Submitting a job with a reference which has already been created
+ * gives the persisted response, and will not create the job again.
+ * <p>
+ * Sending is retried, with exponential backoff, if the job was not received by the server, i.e. the connection
+ * could not be established, or the server was unavailable or overloaded. If sending fails in a way where the job
+ * may have been created, e.g. a read timeout, or if the application is terminated after a job has been sent, but
+ * before its response has been received, it can not be known if the job was created. The job then remains
+ * pending, and will be sent again by {@link #resubmitPending()}.
+ */
+public class DirectJobOutbox {
+
+    private final DirectClient client;
+    private final JobOutbox<XMLDirectSignatureJobRequest, XMLDirectSignatureJobResponse> outbox;
+
+    /**
+     * Create an outbox in the given directory, which sends jobs using the given client, making up to
+     * {@value JobOutbox#DEFAULT_MAX_ATTEMPTS} attempts for each job.
+     *
+     * @param client the client used to send jobs.
+     * @param directory the directory where jobs are persisted. It must already exist.
+     * @param executor the executor which sends the jobs, and schedules retries.
+     */
+    public DirectJobOutbox(DirectClient client, Path directory, ScheduledExecutorService executor) {
+        this(client, directory, executor, DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF);
+    }
+
+    /**
+     * Create an outbox in the given directory, which sends jobs using the given client.
+     *
+     * @param client the client used to send jobs.
+     * @param directory the directory where jobs are persisted. It must already exist.
+     * @param executor the executor which sends the jobs, and schedules retries.
+     * @param maxAttempts the maximum number of attempts to send each job.
+     * @param initialBackoff the delay before the first retry, which is doubled for each subsequent retry.
+     */
+    public DirectJobOutbox(DirectClient client, Path directory, ScheduledExecutorService executor, int maxAttempts, Duration initialBackoff) {
+        this.client = client;
+        this.outbox = new JobOutbox<>(directory, XMLDirectSignatureJobRequest.class, XMLDirectSignatureJobResponse.class, client::send, executor, maxAttempts, initialBackoff);
+    }
+
+    /**
+     * Persist the given job in the outbox, and send it to the Signature service. The document bundle of the job
+     * is not created if a job with the same reference is already in the outbox.
+     *
+     * @param job the job to create. It must have a reference.
+     * @return the response when the job has been created.
+     */
+    public CompletableFuture<DirectJobResponse> submit(DirectJob job) {
+        AtomicReference<DocumentBundle> documentBundle = new AtomicReference<>();
+        Supplier<DocumentBundle> createDocumentBundle = () -> {
+            documentBundle.set(client.createDocumentBundle(job));
+            return documentBundle.get();
+        };
+        return outbox.submit(job.getReference(), client.createRequest(job), createDocumentBundle, client.getActualSender(job))
+                .whenComplete((response, failure) -> Optional.ofNullable(documentBundle.get()).ifPresent(created -> client.sent(job, created)))
+                .thenApply(JaxbEntityMapping::fromJaxb);
+    }
+
+    /**
+     * Send all jobs in the outbox which have neither been created nor rejected by the Signature service,
+     * typically when starting the application.
+     *
+     * @return the responses for each job being sent, keyed by the reference of the job.
+     */
+    public Map<String, CompletableFuture<DirectJobResponse>> resubmitPending() {
+        return outbox.resubmitPending().entrySet().stream()
+                .collect(toMap(Entry::getKey, pending -> pending.getValue().thenApply(JaxbEntityMapping::fromJaxb)));
+    }
+
+    /**
+     * @return the response for the job with the given reference, if the job has been created
+     *         through this outbox.
+     */
+    public Optional<DirectJobResponse> getResponse(String reference) {
+        return outbox.getResponse(reference).map(JaxbEntityMapping::fromJaxb);
+    }
+
+}
@@ -22,40 +22,143 @@ import no.digipost.signature.client.ClientConfiguration;
 import no.digipost.signature.client.asice.CreateASiCE;
 import no.digipost.signature.client.asice.DocumentBundle;
 import no.digipost.signature.client.asice.manifest.CreatePortalManifest;
+import no.digipost.signature.client.core.CircuitState;
 import no.digipost.signature.client.core.ConfirmationReference;
+import no.digipost.signature.client.core.Operation;
 import no.digipost.signature.client.core.PAdESReference;
+import no.digipost.signature.client.core.RetryStatistics;
 import no.digipost.signature.client.core.Sender;
 import no.digipost.signature.client.core.XAdESReference;
+import no.digipost.signature.client.core.internal.ActualSender;
 import no.digipost.signature.client.core.internal.Cancellable;
 import no.digipost.signature.client.core.internal.ClientHelper;
+import no.digipost.signature.client.core.internal.ConfirmationQueue;
+import no.digipost.signature.client.core.internal.Deadline;
+import no.digipost.signature.client.core.internal.StatusChangePublisher;
+import no.digipost.signature.client.core.internal.StatusChangePublishers;
+import no.digipost.signature.client.core.internal.http.SignatureHttpClient;
 import no.digipost.signature.client.core.internal.http.SignatureHttpClientFactory;
+import no.digipost.signature.client.core.internal.xml.Marshalling;
+import org.reactivestreams.Publisher;
 
 import java.io.InputStream;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static no.digipost.signature.client.portal.JaxbEntityMapping.fromJaxb;
 import static no.digipost.signature.client.portal.JaxbEntityMapping.toJaxb;
 import static no.digipost.signature.client.portal.PortalJobStatusChanged.NO_UPDATED_STATUS;
 
-public class PortalClient {
+public class PortalClient implements AutoCloseable {
+
+    private static final byte[] SYNTHETIC_DOCUMENT = "%PDF-1.4 warm-up".getBytes(US_ASCII);
+    private static final Sender SYNTHETIC_SENDER = new Sender("000000000");
 
     private final ClientHelper client;
+    private final ConfirmationQueue confirmationQueue;
     private final CreateASiCE<PortalJob> aSiCECreator;
     private final ClientConfiguration clientConfiguration;
+    private final StatusChangePublishers statusChangePublishers = new StatusChangePublishers();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
 
     public PortalClient(ClientConfiguration config) {
+        this(SignatureHttpClientFactory.create(config), config);
+    }
+
+    /**
+     * Create a client which shares the given HTTP client, and thus its connection pool and TLS sessions,
+     * with other clients. The HTTP client must be created using
+     * {@link SignatureHttpClientFactory#create(no.digipost.signature.client.core.internal.http.HttpIntegrationConfiguration)},
+     * and this client holds its own {@link SignatureHttpClient#share() reference} to it, so the given
+     * reference may be closed independently of this client.
+     *
+     * @param config the configuration of the client, where the HTTP related configuration is not used,
+     *               as that is given by the shared HTTP client.
+     * @param sharedHttpClient the HTTP client to share.
+     */
+    public PortalClient(ClientConfiguration config, SignatureHttpClient sharedHttpClient) {
+        this(sharedHttpClient.share(), config);
+    }
+
+    private PortalClient(SignatureHttpClient httpClient, ClientConfiguration config) {
         this.clientConfiguration = config;
-        this.client = new ClientHelper(SignatureHttpClientFactory.create(config), config.getGlobalSender());
+        this.client = new ClientHelper(httpClient, config);
+        this.confirmationQueue = new ConfirmationQueue(client::confirm, config.getConfirmationParallelism(), config.getPendingConfirmationsJournal());
         this.aSiCECreator = new CreateASiCE<>(new CreatePortalManifest(config.getClock()), config);
     }
 
 
+    /**
+     * Initialize what is otherwise initialized when creating the first job, so that it does not add to
+     * the time it takes to create the first job: a synthetic document bundle is created and discarded,
+     * which initializes signing and compression, the XML marshallers are initialized, and a connection
+     * to the Signature service is established. Nothing is sent to the service, and no
+     * {@link no.digipost.signature.client.asice.DocumentBundleProcessor document bundle processors} are run.
+     * <p>
+     * Failing to connect to the service is only logged.
+     */
+    public void warmUp() {
+        PortalJob syntheticJob = PortalJob.builder(
+                PortalDocument.builder("Warm-up", "warm-up.pdf", SYNTHETIC_DOCUMENT).build(),
+                PortalSigner.identifiedByEmail("warm-up@localhost").build())
+                .withReference("warm-up")
+                .withSender(clientConfiguration.getGlobalSender().orElse(SYNTHETIC_SENDER))
+                .build();
+        aSiCECreator.warmUp(syntheticJob);
+        Marshalling.warmUp(createRequest(syntheticJob));
+        client.warmUp();
+    }
+
     public PortalJobResponse create(PortalJob job) {
-        DocumentBundle documentBundle = aSiCECreator.createASiCE(job);
-        XMLPortalSignatureJobRequest signatureJobRequest = toJaxb(job, clientConfiguration.getGlobalSender());
+        return create(job, Optional.empty());
+    }
 
-        XMLPortalSignatureJobResponse xmlPortalSignatureJobResponse = client.sendPortalSignatureJobRequest(signatureJobRequest, documentBundle, job.getSender());
-        return fromJaxb(xmlPortalSignatureJobResponse);
+    /**
+     * Create a job, giving up if it can not be created within the given timeout. The timeout covers
+     * creating the document bundle as well as sending it, and the job is not sent, nor retried,
+     * when the timeout has elapsed. Requests are also given socket timeouts no longer than the
+     * time remaining.
+     *
+     * @throws no.digipost.signature.client.core.exceptions.DeadlineExceededException if the job was not
+     *         sent before the timeout elapsed.
+     */
+    public PortalJobResponse create(PortalJob job, Duration timeout) {
+        return create(job, Optional.of(Deadline.in(timeout)));
+    }
+
+    private PortalJobResponse create(PortalJob job, Optional<Deadline> deadline) {
+        DocumentBundle documentBundle = createDocumentBundle(job);
+        XMLPortalSignatureJobRequest signatureJobRequest = createRequest(job);
+
+        try {
+            XMLPortalSignatureJobResponse xmlPortalSignatureJobResponse = client.sendPortalSignatureJobRequest(signatureJobRequest, documentBundle, Optional.of(getActualSender(job)), deadline);
+            return fromJaxb(xmlPortalSignatureJobResponse);
+        } finally {
+            sent(job, documentBundle);
+        }
+    }
+
+    DocumentBundle createDocumentBundle(PortalJob job) {
+        return aSiCECreator.createASiCE(job);
+    }
+
+    void sent(PortalJob job, DocumentBundle documentBundle) {
+        aSiCECreator.sent(job, documentBundle);
+    }
+
+    XMLPortalSignatureJobRequest createRequest(PortalJob job) {
+        return toJaxb(job, clientConfiguration.getGlobalSender());
+    }
+
+    Sender getActualSender(PortalJob job) {
+        return ActualSender.getActualSender(job.getSender(), clientConfiguration.getGlobalSender());
+    }
+
+    XMLPortalSignatureJobResponse send(XMLPortalSignatureJobRequest signatureJobRequest, DocumentBundle documentBundle, Sender sender) {
+        return client.sendPortalSignatureJobRequest(signatureJobRequest, documentBundle, Optional.of(sender));
     }
 
 
@@ -93,6 +196,33 @@ public class PortalClient {
         return statusChange == null ? NO_UPDATED_STATUS : JaxbEntityMapping.fromJaxb(statusChange);
     }
 
+    /**
+     * Get a {@link Publisher} of {@link PortalJobStatus status} changes, which are retrieved by
+     * {@link #getStatusChange() polling} the Signature service only while the subscriber has signalled
+     * demand for more status changes. {@link PortalJobStatusChanged#NO_UPDATED_STATUS NO_UPDATED_STATUS}
+     * is never published, and if the service responds that the client is polling too eagerly, polling is
+     * resumed at the time permitted by the service.
+     * <p>
+     * Each published status change carries its own {@link ConfirmationReference}, and must be
+     * {@link #confirm(PortalJobStatusChanged) confirmed} when processed, exactly as if retrieved
+     * using {@link #getStatusChange()}.
+     *
+     * @return the {@link Publisher} of status changes. Each subscription polls on its own thread.
+     */
+    public Publisher<PortalJobStatusChanged> statusChanges() {
+        return statusChanges(null);
+    }
+
+    /**
+     * Get a {@link Publisher} of {@link PortalJobStatus status} changes for jobs created on behalf of
+     * the given {@link Sender}. See {@link #statusChanges()}.
+     *
+     * @return the {@link Publisher} of status changes. Each subscription polls on its own thread.
+     */
+    public Publisher<PortalJobStatusChanged> statusChanges(Sender sender) {
+        return statusChangePublishers.register(new StatusChangePublisher<>(() -> getStatusChange(sender), status -> status.is(PortalJobStatus.NO_CHANGES), clientConfiguration.getClock()));
+    }
+
 
     /**
      * Confirms that the status retrieved from {@link #getStatusChange()} is received and may
@@ -105,6 +235,22 @@ public class PortalClient {
         client.confirm(receivedStatusChanged);
     }
 
+    /**
+     * Queues the given status to be {@link #confirm(PortalJobStatusChanged) confirmed} in the background, and returns
+     * immediately. Confirmations are sent concurrently, up to the configured
+     * {@link ClientConfiguration.Builder#confirmationParallelism(int) confirmation parallelism}, and
+     * confirmations failing because of I/O errors or server errors are retried until they succeed.
+     * If {@link ClientConfiguration.Builder#persistPendingConfirmations(java.nio.file.Path) configured},
+     * pending confirmations are persisted, and sent when a new client is created if the application terminates
+     * before they have been sent.
+     *
+     * @param receivedStatusChanged the status to confirm.
+     * @return a future which completes when the confirmation has been sent.
+     */
+    public CompletableFuture<Void> confirmAsync(PortalJobStatusChanged receivedStatusChanged) {
+        return confirmationQueue.enqueue(receivedStatusChanged);
+    }
+
     public void cancel(Cancellable cancellable) {
         client.cancel(cancellable);
     }
@@ -119,4 +265,51 @@ public class PortalClient {
         return client.getSignedDocumentStream(pAdESReference.getpAdESUrl());
     }
 
+    /**
+     * Get the number of times an operation has been performed by this client, and how many times it has
+     * been {@link ClientConfiguration.Builder#retry(no.digipost.signature.client.RetryPolicy) retried}.
+     */
+    public RetryStatistics getRetryStatistics(Operation operation) {
+        return client.getRetryStatistics(operation);
+    }
+
+    /**
+     * Get the state of the {@link ClientConfiguration.Builder#circuitBreaker(no.digipost.signature.client.CircuitBreakerPolicy)
+     * circuit breaker} for an operation.
+     */
+    public CircuitState getCircuitState(Operation operation) {
+        return client.getCircuitState(operation);
+    }
+
+
+    /**
+     * Close the client, waiting up to {@value ClientConfiguration#DEFAULT_SHUTDOWN_TIMEOUT_MS} ms
+     * for work in progress to complete. See {@link #close(Duration)}.
+     */
+    @Override
+    public void close() {
+        close(Duration.ofMillis(ClientConfiguration.DEFAULT_SHUTDOWN_TIMEOUT_MS));
+    }
+
+    /**
+     * Close the client gracefully. {@link #statusChanges() Status change publishers} stop polling and
+     * complete their subscriptions, queued {@link #confirmAsync(PortalJobStatusChanged) confirmations} are sent,
+     * and requests in progress are allowed to complete, including jobs being sent from a {@link PortalJobOutbox}
+     * and downloads of signed documents whose streams are not yet closed. When all of this has completed,
+     * or the timeout has elapsed, the HTTP client is closed, unless it is shared with other clients
+     * which are not closed.
+     * <p>
+     * The client can not be used after it is closed. Closing a client which is already closed has no effect.
+     *
+     * @param timeout the maximum time to wait for work in progress to complete.
+     */
+    public void close(Duration timeout) {
+        if (closed.compareAndSet(false, true)) {
+            Deadline deadline = Deadline.in(timeout);
+            statusChangePublishers.close(deadline);
+            confirmationQueue.close(deadline);
+            client.close(deadline);
+        }
+    }
+
 }
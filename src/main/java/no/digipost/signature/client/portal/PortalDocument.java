@@ -15,6 +15,7 @@
  */
 package no.digipost.signature.client.portal;
 
+import no.digipost.signature.client.asice.DocumentSource;
 import no.digipost.signature.client.core.Document;
 
 import static no.digipost.signature.client.core.Document.FileType.PDF;
@@ -22,7 +23,7 @@ import static no.digipost.signature.client.core.Document.FileType.PDF;
 public class PortalDocument extends Document {
     private final String nonsensitiveTitle;
 
-    private PortalDocument(String title, String nonsensitiveTitle, String message, String fileName, FileType fileType, byte[] document) {
+    private PortalDocument(String title, String nonsensitiveTitle, String message, String fileName, FileType fileType, DocumentSource document) {
         super(title, message, fileName, fileType, document);
         this.nonsensitiveTitle = nonsensitiveTitle;
     }
@@ -35,16 +36,29 @@ public class PortalDocument extends Document {
         return new Builder(title, fileName, document);
     }
 
+    /**
+     * Create a document with content from a {@link DocumentSource}, e.g. a
+     * {@link DocumentSource#mapped(java.nio.file.Path) memory-mapped file}, which need not be loaded
+     * into memory as a {@code byte[]}.
+     */
+    public static Builder builder(final String title, final String fileName, final DocumentSource document) {
+        return new Builder(title, fileName, document);
+    }
+
     public static class Builder {
 
         private String title;
         private String nonsensitiveTitle;
         private String fileName;
-        private byte[] document;
+        private DocumentSource document;
         private String message;
         private FileType fileType = PDF;
 
         public Builder(final String title, final String fileName, final byte[] document) {
+            this(title, fileName, DocumentSource.of(document));
+        }
+
+        public Builder(final String title, final String fileName, final DocumentSource document) {
             this.title = title;
             this.fileName = fileName;
             this.document = document;
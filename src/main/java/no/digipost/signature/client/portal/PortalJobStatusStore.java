@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.portal;
+
+import no.digipost.signature.client.core.JobState;
+import no.digipost.signature.client.core.internal.JobStateFile;
+import no.digipost.signature.client.core.internal.JobStateFile.SignerState;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.stream.Collectors.toList;
+import static no.digipost.signature.client.portal.PortalJobStatus.IN_PROGRESS;
+import static no.digipost.signature.client.portal.PortalJobStatus.NO_CHANGES;
+
+/**
+ * Keeps track of the {@link PortalJobStatus status} of portal signature jobs, by recording each
+ * {@link PortalJobStatusChanged status} received from the Signature service in a file. Recording a status tells if it is
+ * a duplicate of what was previously recorded for the job, e.g. a status which has been received again
+ * because it was not confirmed.
+ * <p>
+ * Only the position of each job in the file is kept in memory, making it feasible to keep track of
+ * a very large number of jobs. Queries which are not on job ID, e.g. {@link #getInProgressOlderThan(Duration)},
+ * read through the whole file.
+ * <p>
+ * Note that a duplicate status still must be {@link PortalClient#confirm(PortalJobStatusChanged) confirmed}
+ * if it has a confirmation reference.
+ */
+public final class PortalJobStatusStore implements Closeable {
+
+    private final JobStateFile<PortalJobStatus> jobStates;
+    private final Clock clock;
+
+    /**
+     * Open the store in the given file, which is created if it does not exist.
+     */
+    public PortalJobStatusStore(Path file) {
+        this(file, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Open the store in the given file, which is created if it does not exist.
+     *
+     * @param clock the clock used to timestamp recorded statuses.
+     */
+    public PortalJobStatusStore(Path file, Clock clock) {
+        this.jobStates = new JobStateFile<>(file, PortalJobStatus.class, clock);
+        this.clock = clock;
+    }
+
+    /**
+     * Record a received status.
+     *
+     * @return {@code true} if the status is changed since the last recorded status for the same job,
+     *         or {@code false} if it is a duplicate, or {@link PortalJobStatusChanged#NO_UPDATED_STATUS NO_UPDATED_STATUS}.
+     */
+    public boolean record(PortalJobStatusChanged status) {
+        if (status.is(NO_CHANGES)) {
+            return false;
+        }
+        List<SignerState> signerStates = status.getSignatures().stream()
+                .map(signature -> new SignerState(signature.getSigner(), String.valueOf(signature.getStatus()), signature.is(SignatureStatus.SIGNED)))
+                .collect(toList());
+        return jobStates.record(status.getSignatureJobId(), status.getStatus(), signerStates, status.getConfirmationReference() != null);
+    }
+
+    /**
+     * Record that a status has been {@link PortalClient#confirm(PortalJobStatusChanged) confirmed}.
+     */
+    public void confirmed(PortalJobStatusChanged status) {
+        if (!status.is(NO_CHANGES)) {
+            jobStates.confirmed(status.getSignatureJobId());
+        }
+    }
+
+    public Optional<JobState<PortalJobStatus>> get(long signatureJobId) {
+        return jobStates.get(signatureJobId);
+    }
+
+    /**
+     * @return all jobs where the last recorded status has not been recorded as confirmed.
+     */
+    public List<JobState<PortalJobStatus>> getAwaitingConfirmation() {
+        return jobStates.find(JobState::isAwaitingConfirmation);
+    }
+
+    /**
+     * @return all jobs which are still {@link PortalJobStatus#IN_PROGRESS in progress}, and had their first status
+     *         recorded longer ago than the given age.
+     */
+    public List<JobState<PortalJobStatus>> getInProgressOlderThan(Duration age) {
+        Instant firstSeenBefore = clock.instant().minus(age);
+        return jobStates.find(job -> job.is(IN_PROGRESS) && job.getFirstSeen().isBefore(firstSeenBefore));
+    }
+
+    /**
+     * @return the number of jobs in the store.
+     */
+    public int size() {
+        return jobStates.size();
+    }
+
+    @Override
+    public void close() {
+        jobStates.close();
+    }
+
+}
@@ -15,13 +15,19 @@
  */
 package no.digipost.signature.client;
 
+import no.digipost.signature.client.core.Operation;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+
 import static no.digipost.signature.client.ClientConfiguration.MANDATORY_USER_AGENT;
 import static no.digipost.signature.client.ClientMetadata.VERSION;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class ClientConfigurationTest {
 
@@ -44,4 +50,39 @@ public class ClientConfigurationTest {
                 .and(containsString(VERSION))
                 .and(containsString("My Corporation")));
     }
+
+    @Test
+    public void createsTheSSLContextOnlyOnce() {
+        ClientConfiguration clientConfiguration = config.build();
+        assertThat(clientConfiguration.getSSLContext(), sameInstance(clientConfiguration.getSSLContext()));
+    }
+
+    @Test
+    public void overridesTimeoutOnlyForConfiguredOperations() {
+        ClientConfiguration clientConfiguration = config.timeout(Operation.DOWNLOAD, Duration.ofMinutes(2)).build();
+        assertThat(clientConfiguration.getTimeout(Operation.DOWNLOAD), is(Optional.of(Duration.ofMinutes(2))));
+        assertThat(clientConfiguration.getTimeout(Operation.STATUS), is(Optional.empty()));
+    }
+
+    @Test
+    public void doesNotHedgePolling() {
+        try {
+            HedgingPolicy.builder().operations(Operation.POLL);
+            fail("Should not hedge polling");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("POLL"));
+        }
+    }
+
+    @Test
+    public void rejectsTimeoutWhichIsNotPositive() {
+        for (Duration timeout : Arrays.asList(null, Duration.ZERO, Duration.ofSeconds(-1))) {
+            try {
+                config.timeout(Operation.DOWNLOAD, timeout);
+                fail("Should not accept timeout " + timeout);
+            } catch (IllegalArgumentException e) {
+                assertThat(e.getMessage(), containsString("DOWNLOAD"));
+            }
+        }
+    }
 }
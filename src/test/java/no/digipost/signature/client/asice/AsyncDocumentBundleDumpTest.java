@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice;
+
+import no.digipost.signature.client.core.SignatureJob;
+import no.digipost.signature.client.direct.DirectDocument;
+import no.digipost.signature.client.direct.DirectJob;
+import no.digipost.signature.client.direct.DirectSigner;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static no.digipost.signature.client.direct.ExitUrls.singleExitUrl;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class AsyncDocumentBundleDumpTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Clock clock = Clock.fixed(Instant.parse("2018-01-20T13:45:00Z"), ZoneOffset.UTC);
+
+    @Test
+    public void writes_each_bundle_to_file_in_hour_shard() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (AsyncDocumentBundleDump dump = AsyncDocumentBundleDump.to(directory).syncEvery(10).usingClock(clock).build()) {
+            dump.process(job("first"), ByteBuffer.wrap("first bundle".getBytes(UTF_8)));
+            dump.process(job("second"), IOUtils.toInputStream("second bundle", UTF_8));
+        }
+
+        Path shard = directory.resolve("2018-01-20").resolve("13");
+        assertThat(fileNames(shard), containsInAnyOrder("20180120134500000-first-asice.zip", "20180120134500000-second-asice.zip"));
+        assertThat(new String(Files.readAllBytes(shard.resolve("20180120134500000-second-asice.zip")), UTF_8), is("second bundle"));
+    }
+
+    @Test
+    public void appends_bundles_to_segment_files() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        AsyncDocumentBundleDump dump = AsyncDocumentBundleDump.to(directory).rollingSegments(1024 * 1024).usingClock(clock).build();
+        dump.process(job("first"), ByteBuffer.wrap("first bundle".getBytes(UTF_8)));
+        dump.process(job("second"), ByteBuffer.wrap("second bundle".getBytes(UTF_8)));
+        dump.close();
+
+        assertThat(dump.getWritten(), is(2L));
+        assertThat(dump.getQueueDepth(), is(0));
+        Path shard = directory.resolve("2018-01-20").resolve("13");
+        List<String> segments = fileNames(shard);
+        assertThat(segments, hasSize(1));
+        String segment = new String(Files.readAllBytes(shard.resolve(segments.get(0))), UTF_8);
+        assertThat(segment, containsString("20180120134500000-second-asice.zip"));
+        assertThat(segment, containsString("second bundle"));
+        assertThat(Files.size(shard.resolve(segments.get(0))) % 512, is(0L));
+        assertThat(segment.substring(136, 147), is(Long.toOctalString(clock.instant().getEpochSecond())));
+    }
+
+    @Test
+    public void keeps_names_too_long_for_tar_header_in_segment_files() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        String reference = String.join("", Collections.nCopies(120, "r"));
+        AsyncDocumentBundleDump dump = AsyncDocumentBundleDump.to(directory).rollingSegments(1024 * 1024).usingClock(clock).build();
+        dump.process(job(reference), ByteBuffer.wrap("bundle".getBytes(UTF_8)));
+        dump.close();
+
+        Path shard = directory.resolve("2018-01-20").resolve("13");
+        Path segment = shard.resolve(fileNames(shard).get(0));
+        String content = new String(Files.readAllBytes(segment), UTF_8);
+        String path = "path=20180120134500000-" + reference + "-asice.zip\n";
+        assertThat(content, containsString((path.length() + 4) + " " + path));
+        assertThat(content.charAt(156), is('x'));
+        assertThat(Files.size(segment) % 512, is(0L));
+    }
+
+    @Test
+    public void queues_bundles_larger_than_max_queued_bytes_one_at_a_time() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        AsyncDocumentBundleDump dump = AsyncDocumentBundleDump.to(directory).maxQueuedBytes(10).syncEvery(2).usingClock(clock).build();
+        for (int i = 0; i < 5; i++) {
+            dump.process(job("job-" + i), ByteBuffer.wrap(("larger bundle " + i).getBytes(UTF_8)));
+        }
+        dump.close();
+
+        assertThat(dump.getWritten(), is(5L));
+        assertThat(fileNames(directory.resolve("2018-01-20").resolve("13")), hasSize(5));
+    }
+
+    @Test
+    public void writes_every_bundle_accepted_while_closing() throws Exception {
+        AsyncDocumentBundleDump dump = AsyncDocumentBundleDump.to(folder.getRoot().toPath()).queueCapacity(1).rollingSegments(1024 * 1024).usingClock(clock).build();
+        AtomicLong accepted = new AtomicLong();
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread producer = new Thread(() -> {
+                while (true) {
+                    try {
+                        dump.process(job("job"), ByteBuffer.wrap("bundle".getBytes(UTF_8)));
+                        accepted.incrementAndGet();
+                    } catch (IOException closed) {
+                        return;
+                    }
+                }
+            });
+            producer.setDaemon(true);
+            producer.start();
+            producers.add(producer);
+        }
+
+        Thread.sleep(50);
+        dump.close();
+        for (Thread producer : producers) {
+            producer.join(5000);
+        }
+
+        assertThat(dump.getWritten(), is(accepted.get()));
+    }
+
+    private static List<String> fileNames(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).collect(Collectors.toList());
+        }
+    }
+
+    private static SignatureJob job(String reference) {
+        return DirectJob.builder(DirectDocument.builder("Title", "file.txt", "hello".getBytes()).build(),
+                singleExitUrl("https://job.well.done.org"), DirectSigner.withPersonalIdentificationNumber("12345678910").build())
+                .withReference(reference)
+                .build();
+    }
+
+}
@@ -44,6 +44,7 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -54,6 +55,7 @@ import static no.digipost.signature.client.asice.DumpDocumentBundleToDisk.TIMEST
 import static no.digipost.signature.client.asice.DumpDocumentBundleToDisk.referenceFilenamePart;
 import static no.digipost.signature.client.direct.ExitUrls.singleExitUrl;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 
 public class CreateASiCETest {
@@ -101,6 +103,21 @@ public class CreateASiCETest {
         create_document_bundle_and_dump_to_disk(new CreatePortalManifest(clock), job);
     }
 
+    @Test
+    public void warming_up_does_not_process_the_synthetic_document_bundle() {
+        AtomicInteger processed = new AtomicInteger();
+        CreateASiCE<DirectJob> aSiCECreator = new CreateASiCE<>(new CreateDirectManifest(), ClientConfiguration.builder(CLIENT_KEYSTORE)
+                .globalSender(new Sender("123456789"))
+                .addDocumentBundleProcessor((job, documentBundle) -> processed.incrementAndGet())
+                .build());
+
+        aSiCECreator.warmUp(DirectJob.builder(DIRECT_DOCUMENT, singleExitUrl("https://job.well.done.org"), DirectSigner.withPersonalIdentificationNumber("12345678910").build())
+                .withReference("warm-up")
+                .build());
+
+        assertThat(processed.get(), is(0));
+    }
+
     private <JOB extends SignatureJob> void create_document_bundle_and_dump_to_disk(ManifestCreator<JOB> manifestCreator, JOB job) throws IOException {
         CreateASiCE<JOB> aSiCECreator = new CreateASiCE<>(manifestCreator, ClientConfiguration.builder(CLIENT_KEYSTORE)
                 .globalSender(new Sender("123456789"))
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice;
+
+import no.digipost.signature.client.core.SignatureJob;
+import no.digipost.signature.client.core.exceptions.RuntimeIOException;
+import no.digipost.signature.client.direct.DirectDocument;
+import no.digipost.signature.client.direct.DirectJob;
+import no.digipost.signature.client.direct.DirectSigner;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static no.digipost.signature.client.direct.ExitUrls.singleExitUrl;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class DocumentBundleProcessingTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    private final SignatureJob job = DirectJob.builder(
+            DirectDocument.builder("Title", "file.txt", "hello".getBytes()).build(),
+            singleExitUrl("https://job.well.done.org"), DirectSigner.withPersonalIdentificationNumber("12345678910").build()).build();
+
+    private final DocumentBundle documentBundle = new DocumentBundle("zipped bundle".getBytes());
+
+    private final List<String> processed = new CopyOnWriteArrayList<>();
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void runs_processors_concurrently_before_sending() {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        DocumentBundleProcessor awaitingOther = (job, stream) -> {
+            bothStarted.countDown();
+            try {
+                assertThat(bothStarted.await(5, SECONDS), is(true));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processed.add(IOUtils.toString(stream));
+        };
+
+        DocumentBundleProcessing.concurrentlyBeforeSending(executor).beforeSending(asList(awaitingOther, awaitingOther), job, documentBundle);
+
+        assertThat(processed, containsInAnyOrder("zipped bundle", "zipped bundle"));
+    }
+
+    @Test
+    public void failing_processor_before_sending_fails_creating_job() {
+        DocumentBundleProcessor failing = (job, stream) -> {
+            throw new IOException("disk full");
+        };
+
+        try {
+            DocumentBundleProcessing.concurrentlyBeforeSending(executor).beforeSending(asList(failing), job, documentBundle);
+            fail("Should fail when processor fails");
+        } catch (RuntimeIOException e) {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+        }
+    }
+
+    @Test
+    public void runs_processors_after_sending_and_reports_failures() throws Exception {
+        CompletableFuture<Exception> reportedFailure = new CompletableFuture<>();
+        DocumentBundleProcessing processing = DocumentBundleProcessing.concurrentlyAfterSending(executor, (job, failure) -> reportedFailure.complete(failure));
+        DocumentBundleProcessor failing = (job, stream) -> {
+            throw new IOException("disk full");
+        };
+
+        processing.beforeSending(asList((job, stream) -> processed.add(IOUtils.toString(stream))), job, documentBundle);
+        assertThat(processed, empty());
+
+        processing.afterSending(asList(failing), job, documentBundle);
+        assertThat(reportedFailure.get(5, SECONDS), instanceOf(RuntimeIOException.class));
+    }
+
+    @Test
+    public void reports_processors_rejected_by_executor_after_sending() throws Exception {
+        CompletableFuture<Exception> reportedFailure = new CompletableFuture<>();
+        executor.shutdown();
+
+        DocumentBundleProcessing.concurrentlyAfterSending(executor, (job, failure) -> reportedFailure.complete(failure))
+                .afterSending(asList((job, stream) -> processed.add(IOUtils.toString(stream))), job, documentBundle);
+
+        assertThat(reportedFailure.get(5, SECONDS), instanceOf(RejectedExecutionException.class));
+    }
+
+    @Test
+    public void requires_error_handler_for_processing_after_sending() {
+        try {
+            DocumentBundleProcessing.concurrentlyAfterSending(executor, null);
+            fail("Should require an error handler");
+        } catch (NullPointerException e) {
+            assertThat(e.getMessage(), is("errorHandler"));
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DocumentSourceTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reads_content_from_file_each_time_it_is_needed() throws Exception {
+        Path file = folder.newFile("document.txt").toPath();
+        Files.write(file, "first".getBytes(UTF_8));
+        DocumentSource source = DocumentSource.of(file);
+        assertThat(new String(source.toByteArray(), UTF_8), is("first"));
+
+        Files.write(file, "second".getBytes(UTF_8));
+        assertThat(source.size(), is(6L));
+        assertThat(IOUtils.toString(source.openStream(), UTF_8), is("second"));
+    }
+
+    @Test
+    public void maps_file_into_memory() throws Exception {
+        Path file = folder.newFile("document.txt").toPath();
+        Files.write(file, "mapped content".getBytes(UTF_8));
+
+        DocumentSource source = DocumentSource.mapped(file);
+
+        assertThat(source.content().isDirect(), is(true));
+        assertThat(new String(source.toByteArray(), UTF_8), is("mapped content"));
+        assertThat(new String(source.toByteArray(), UTF_8), is("mapped content"));
+    }
+
+    @Test
+    public void content_of_stream_can_be_read_many_times() throws Exception {
+        DocumentSource source = DocumentSource.of(new ByteArrayInputStream("streamed content".getBytes(UTF_8)));
+
+        assertThat(IOUtils.toString(source.openStream(), UTF_8), is("streamed content"));
+        assertThat(IOUtils.toString(source.openStream(), UTF_8), is("streamed content"));
+    }
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice.archive;
+
+import no.digipost.signature.client.asice.DocumentSource;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class CompressedContentTest {
+
+    @Test
+    public void deflates_content_in_memory_directly_from_its_array() {
+        byte[] content = "content in memory".getBytes(UTF_8);
+        AtomicReference<ByteBuffer> deflated = new AtomicReference<>();
+        DeflateCompressor compressor = (input, level) -> {
+            deflated.set(input);
+            return DeflateCompressor.javaDeflater().deflate(input, level);
+        };
+
+        CompressedContent.deflate(DocumentSource.of(content), Deflater.DEFAULT_COMPRESSION, compressor);
+
+        assertThat(deflated.get().hasArray(), is(true));
+        assertThat(deflated.get().array(), sameInstance(content));
+    }
+
+    @Test
+    public void samples_content_in_memory_and_outside_of_heap_alike() {
+        byte[] text = String.join(" ", Collections.nCopies(20_000, "compressible")).getBytes(UTF_8);
+        byte[] random = new byte[100_000];
+        new Random(42).nextBytes(random);
+
+        assertThat(CompressedContent.isCompressible(ByteBuffer.wrap(text), 10), is(true));
+        assertThat(CompressedContent.isCompressible(DocumentSource.of(new ByteArrayInputStream(text)).content(), 10), is(true));
+        assertThat(CompressedContent.isCompressible(ByteBuffer.wrap(random), 10), is(false));
+        assertThat(CompressedContent.isCompressible(DocumentSource.of(new ByteArrayInputStream(random)).content(), 10), is(false));
+    }
+
+    @Test
+    public void content_outside_of_heap_is_read_through_a_view() {
+        DocumentSource source = DocumentSource.of(new ByteArrayInputStream("streamed content".getBytes(UTF_8)));
+
+        assertThat(source.hasArray(), is(false));
+        assertThat(CompressedContent.contentOf(source).isReadOnly(), is(true));
+    }
+
+}
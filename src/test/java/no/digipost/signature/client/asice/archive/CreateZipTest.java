@@ -16,17 +16,30 @@
 package no.digipost.signature.client.asice.archive;
 
 import no.digipost.signature.client.asice.ASiCEAttachable;
+import no.digipost.signature.client.asice.DocumentCache;
+import no.digipost.signature.client.asice.DocumentCompression;
+import no.digipost.signature.client.asice.DocumentSource;
+import no.digipost.signature.client.direct.DirectDocument;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.time.Clock;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import static java.util.Arrays.asList;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertThat;
 
@@ -50,6 +63,110 @@ public class CreateZipTest {
 
     }
 
+    @Test
+    public void reuses_compressed_content_of_cached_documents() throws IOException {
+        DocumentCache cache = DocumentCache.withCapacity(1024);
+        CreateZip createZip = createZip(DocumentCompression.DEFLATE, Optional.of(cache));
+        DirectDocument document = DirectDocument.builder("Title", "document.txt", "same document for everyone".getBytes()).build();
+
+        byte[] first = createZip.zipIt(asList(document, file("manifest.xml", "first")));
+        byte[] second = createZip.zipIt(asList(document, file("manifest.xml", "second")));
+
+        assertThat(cache.size(), is(1));
+        for (byte[] archive : asList(first, second)) {
+            try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive))) {
+                verifyZipFile(zipInputStream, "document.txt", "same document for everyone");
+            }
+        }
+    }
+
+    @Test
+    public void does_not_cache_documents_larger_than_the_capacity() {
+        DocumentCache cache = DocumentCache.withCapacity(1);
+        CreateZip createZip = createZip(DocumentCompression.DEFLATE, Optional.of(cache));
+
+        createZip.zipIt(asList(DirectDocument.builder("Title", "document.txt", "a document".getBytes()).build()));
+
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void evicts_least_recently_used_documents_to_make_room_for_new() {
+        DocumentSource first = DocumentSource.of("first document".getBytes());
+        DocumentSource second = DocumentSource.of("second document".getBytes());
+        long capacity = CompressedContent.deflate(first).getCompressedSize() + CompressedContent.deflate(second).getCompressedSize() - 1;
+        DocumentCache cache = DocumentCache.withCapacity(capacity);
+        AtomicInteger compressions = new AtomicInteger();
+        Function<DocumentSource, CompressedContent> compressor = source -> {
+            compressions.incrementAndGet();
+            return CompressedContent.deflate(source);
+        };
+
+        cache.compressed(first, compressor);
+        cache.compressed(second, compressor);
+        assertThat(cache.size(), is(1));
+
+        cache.compressed(second, compressor);
+        assertThat(compressions.get(), is(2));
+        cache.compressed(first, compressor);
+        assertThat(compressions.get(), is(3));
+    }
+
+    @Test
+    public void stores_documents_uncompressed_and_deflates_xml() throws IOException {
+        CreateZip createZip = createZip(DocumentCompression.STORED, Optional.empty());
+        DirectDocument document = DirectDocument.builder("Title", "document.txt", "a document".getBytes()).build();
+
+        byte[] archive = createZip.zipIt(asList(document, file("manifest.xml", "manifest")));
+
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            assertThat(zipInputStream.getNextEntry().getMethod(), is(ZipEntry.STORED));
+            assertArrayEquals(IOUtils.toByteArray(zipInputStream), "a document".getBytes());
+            assertThat(zipInputStream.getNextEntry().getMethod(), is(ZipEntry.DEFLATED));
+            assertArrayEquals(IOUtils.toByteArray(zipInputStream), "manifest".getBytes());
+        }
+    }
+
+    @Test
+    public void adaptively_stores_incompressible_documents() throws IOException {
+        CreateZip createZip = createZip(DocumentCompression.ADAPTIVE, Optional.empty());
+        byte[] random = new byte[100_000];
+        new Random(42).nextBytes(random);
+        byte[] repetitive = new byte[100_000];
+
+        byte[] archive = createZip.zipIt(asList(
+                DirectDocument.builder("Title", "random.pdf", random).build(),
+                DirectDocument.builder("Title", "repetitive.pdf", repetitive).build()));
+
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            assertThat(zipInputStream.getNextEntry().getMethod(), is(ZipEntry.STORED));
+            assertArrayEquals(IOUtils.toByteArray(zipInputStream), random);
+            assertThat(zipInputStream.getNextEntry().getMethod(), is(ZipEntry.DEFLATED));
+            assertArrayEquals(IOUtils.toByteArray(zipInputStream), repetitive);
+        }
+    }
+
+    @Test
+    public void uses_configured_compression_level_and_compressor() throws IOException {
+        List<Integer> levels = new ArrayList<>();
+        DeflateCompressor compressor = (content, level) -> {
+            levels.add(level);
+            return DeflateCompressor.javaDeflater().deflate(content, level);
+        };
+        CreateZip createZip = new CreateZip(DocumentCompression.DEFLATE, Deflater.BEST_SPEED, compressor, Optional.empty(), Clock.systemDefaultZone());
+
+        byte[] archive = createZip.zipIt(asList(file("file.txt", "test")));
+
+        assertThat(levels, contains(Deflater.BEST_SPEED));
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            verifyZipFile(zipInputStream, "file.txt", "test");
+        }
+    }
+
+    private static CreateZip createZip(DocumentCompression documentCompression, Optional<DocumentCache> documentCache) {
+        return new CreateZip(documentCompression, Deflater.DEFAULT_COMPRESSION, DeflateCompressor.javaDeflater(), documentCache, Clock.systemDefaultZone());
+    }
+
     private static void verifyZipFile(ZipInputStream zipInputStream, String fileName, String contents) throws IOException {
         ZipEntry firstZipFile = zipInputStream.getNextEntry();
         assertThat(firstZipFile.getName(), containsString(fileName));
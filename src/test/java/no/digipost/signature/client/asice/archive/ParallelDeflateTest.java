@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.asice.archive;
+
+import no.digipost.signature.client.asice.DocumentSource;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class ParallelDeflateTest {
+
+    @Test
+    public void deflates_blocks_into_single_valid_deflate_stream() throws IOException {
+        byte[] content = compressibleContent(ParallelDeflate.BLOCK_SIZE * 5 + 1234);
+
+        assertDeflatedInParallel(content, DocumentSource.of(content));
+    }
+
+    @Test
+    public void deflates_blocks_of_content_outside_of_heap() throws IOException {
+        byte[] content = compressibleContent(ParallelDeflate.BLOCK_SIZE * 3 + 42);
+
+        assertDeflatedInParallel(content, DocumentSource.of(new ByteArrayInputStream(content)));
+    }
+
+    private static void assertDeflatedInParallel(byte[] content, DocumentSource source) throws IOException {
+        CompressedContent deflated = CompressedContent.deflateInParallel(source, Deflater.DEFAULT_COMPRESSION, ForkJoinPool.commonPool());
+
+        assertThat(deflated.getCrc(), is(crc32(content)));
+        assertThat(deflated.getSize(), is((long) content.length));
+        assertThat(deflated.getCompressedSize(), lessThan((long) content.length / 2));
+        ByteBuffer data = deflated.getData();
+        byte[] compressed = new byte[data.remaining()];
+        data.get(compressed);
+        try (InflaterInputStream inflated = new InflaterInputStream(new ByteArrayInputStream(compressed), new Inflater(true))) {
+            assertArrayEquals(content, IOUtils.toByteArray(inflated));
+        }
+    }
+
+    @Test
+    public void combines_crc_of_consecutive_sequences() {
+        byte[] content = compressibleContent(10_000);
+        CRC32 first = new CRC32();
+        first.update(content, 0, 3_000);
+        CRC32 second = new CRC32();
+        second.update(content, 3_000, 7_000);
+
+        assertThat(ParallelDeflate.crc32Combine(first.getValue(), second.getValue(), 7_000), is(crc32(content)));
+    }
+
+    private static byte[] compressibleContent(int size) {
+        Random random = new Random(42);
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) ('a' + random.nextInt(4));
+        }
+        return content;
+    }
+
+    private static long crc32(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        return crc.getValue();
+    }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.CircuitBreakerPolicy;
+import no.digipost.signature.client.core.exceptions.CircuitOpenException;
+import no.digipost.signature.client.core.exceptions.UnexpectedResponseException;
+import org.junit.Test;
+
+import javax.ws.rs.ProcessingException;
+import java.time.Duration;
+
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.OK;
+import static no.digipost.signature.client.core.CircuitState.CLOSED;
+import static no.digipost.signature.client.core.CircuitState.HALF_OPEN;
+import static no.digipost.signature.client.core.CircuitState.OPEN;
+import static no.digipost.signature.client.core.Operation.CREATE;
+import static no.digipost.signature.client.core.Operation.DOWNLOAD;
+import static no.digipost.signature.client.core.Operation.STATUS;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakersTest {
+
+    private final CircuitBreakers breakers = new CircuitBreakers(CircuitBreakerPolicy.builder()
+            .openAfter(2).slowRequestThreshold(Duration.ofMillis(50)).openDuration(Duration.ofMillis(100)).build());
+
+    @Test
+    public void opens_after_consecutive_failures_and_closes_after_successful_probe() throws InterruptedException {
+        failWithTransientError();
+        assertThat(breakers.state(STATUS), is(CLOSED));
+        failWithTransientError();
+        assertThat(breakers.state(STATUS), is(OPEN));
+        assertThat(breakers.state(DOWNLOAD), is(CLOSED));
+
+        try {
+            breakers.call(STATUS, () -> "not sent");
+            fail("Should fail when circuit is open");
+        } catch (CircuitOpenException e) {
+            assertThat(breakers.state(STATUS), is(OPEN));
+        }
+
+        Thread.sleep(150);
+        assertThat(breakers.state(STATUS), is(HALF_OPEN));
+        assertThat(breakers.call(STATUS, () -> "probe"), is("probe"));
+        assertThat(breakers.state(STATUS), is(CLOSED));
+    }
+
+    @Test
+    public void counts_slow_requests_but_not_client_errors_as_failures() {
+        for (int i = 0; i < 3; i++) {
+            try {
+                breakers.call(STATUS, () -> {
+                    throw new UnexpectedResponseException(null, BAD_REQUEST, OK);
+                });
+            } catch (UnexpectedResponseException expected) {
+            }
+        }
+        assertThat(breakers.state(STATUS), is(CLOSED));
+
+        breakers.call(STATUS, this::slowResponse);
+        breakers.call(STATUS, this::slowResponse);
+        assertThat(breakers.state(STATUS), is(OPEN));
+    }
+
+    @Test
+    public void does_not_count_slow_job_creation_as_failure_unless_configured() {
+        breakers.call(CREATE, this::slowResponse);
+        breakers.call(CREATE, this::slowResponse);
+        assertThat(breakers.state(CREATE), is(CLOSED));
+
+        CircuitBreakers slowCreation = new CircuitBreakers(CircuitBreakerPolicy.builder()
+                .openAfter(2).slowRequestThreshold(CREATE, Duration.ofMillis(50)).build());
+        slowCreation.call(CREATE, this::slowResponse);
+        slowCreation.call(CREATE, this::slowResponse);
+        assertThat(slowCreation.state(CREATE), is(OPEN));
+    }
+
+    private void failWithTransientError() {
+        try {
+            breakers.call(STATUS, () -> {
+                throw new ProcessingException("Connection reset");
+            });
+        } catch (ProcessingException expected) {
+        }
+    }
+
+    private String slowResponse() {
+        try {
+            Thread.sleep(60);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "slow";
+    }
+
+}
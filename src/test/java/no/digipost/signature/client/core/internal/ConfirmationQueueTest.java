@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.core.ConfirmationReference;
+import no.digipost.signature.client.core.exceptions.CircuitOpenException;
+import no.digipost.signature.client.core.exceptions.ClientClosedException;
+import no.digipost.signature.client.core.exceptions.UnexpectedResponseException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.ws.rs.ProcessingException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static no.digipost.signature.client.core.Operation.CONFIRM;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.OK;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ConfirmationQueueTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> confirmed = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void retries_confirmation_on_transient_failure() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        ConfirmationQueue queue = queue(confirmable -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new ProcessingException("Connection reset");
+            }
+            confirmed.add(confirmable.getConfirmationReference().getConfirmationUrl());
+        }, Optional.empty());
+
+        queue.enqueue(confirmable("https://example.com/confirm/1")).get(5, SECONDS);
+
+        assertThat(attempts.get(), is(3));
+        assertThat(confirmed, contains("https://example.com/confirm/1"));
+        assertThat(queue.pending(), is(0));
+    }
+
+    @Test
+    public void retries_confirmation_when_circuit_is_open() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        ConfirmationQueue queue = queue(confirmable -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new CircuitOpenException(CONFIRM, Duration.ofMillis(50));
+            }
+            confirmed.add(confirmable.getConfirmationReference().getConfirmationUrl());
+        }, Optional.empty());
+
+        queue.enqueue(confirmable("https://example.com/confirm/1")).get(5, SECONDS);
+
+        assertThat(attempts.get(), is(2));
+        assertThat(confirmed, contains("https://example.com/confirm/1"));
+    }
+
+    @Test
+    public void gives_up_on_non_transient_failure() throws Exception {
+        ConfirmationQueue queue = queue(confirmable -> {
+            throw new UnexpectedResponseException(null, BAD_REQUEST, OK);
+        }, Optional.empty());
+
+        try {
+            queue.enqueue(confirmable("https://example.com/confirm/1")).get(5, SECONDS);
+            fail("Should have failed confirming");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(UnexpectedResponseException.class));
+        }
+        assertThat(queue.pending(), is(0));
+    }
+
+    @Test
+    public void keeps_confirmation_which_failed_in_journal() throws Exception {
+        Path journal = folder.getRoot().toPath().resolve("confirmations");
+        ConfirmationQueue queue = queue(confirmable -> {
+            throw new UnexpectedResponseException(null, BAD_REQUEST, OK);
+        }, Optional.of(journal));
+
+        queue.enqueue(confirmable("https://example.com/confirm/1")).handle((confirmed, failure) -> failure).get(5, SECONDS);
+
+        assertThat(Files.readAllLines(journal), contains("+https://example.com/confirm/1"));
+    }
+
+    @Test
+    public void compacts_journal_while_in_use() throws Exception {
+        Path journal = folder.getRoot().toPath().resolve("confirmations");
+        ConfirmationQueue queue = new ConfirmationQueue(confirmable -> confirmed.add(confirmable.getConfirmationReference().getConfirmationUrl()),
+                2, Optional.of(journal), Duration.ofMillis(10), 4);
+
+        for (int i = 0; i < 10; i++) {
+            queue.enqueue(confirmable("https://example.com/confirm/" + i)).get(5, SECONDS);
+        }
+
+        assertThat(confirmed, hasSize(10));
+        assertThat(Files.readAllLines(journal).size(), lessThan(4));
+    }
+
+    @Test
+    public void does_not_send_anything_for_status_without_confirmation_reference() throws Exception {
+        ConfirmationQueue queue = queue(confirmable -> confirmed.add("should not be sent"), Optional.empty());
+
+        queue.enqueue(() -> null).get(5, SECONDS);
+
+        assertThat(confirmed.isEmpty(), is(true));
+    }
+
+    @Test
+    public void resends_pending_confirmations_from_journal() throws Exception {
+        Path journal = folder.getRoot().toPath().resolve("confirmations");
+        CountDownLatch neverConfirms = new CountDownLatch(1);
+        ConfirmationQueue interrupted = queue(confirmable -> {
+            if (confirmable.getConfirmationReference().getConfirmationUrl().endsWith("2")) {
+                try {
+                    neverConfirms.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            confirmed.add(confirmable.getConfirmationReference().getConfirmationUrl());
+        }, Optional.of(journal));
+        interrupted.enqueue(confirmable("https://example.com/confirm/1")).get(5, SECONDS);
+        interrupted.enqueue(confirmable("https://example.com/confirm/2"));
+
+        CompletableFuture<Void> resent = new CompletableFuture<>();
+        queue(confirmable -> {
+            confirmed.add(confirmable.getConfirmationReference().getConfirmationUrl());
+            resent.complete(null);
+        }, Optional.of(journal));
+        resent.get(5, SECONDS);
+
+        assertThat(confirmed, contains("https://example.com/confirm/1", "https://example.com/confirm/2"));
+        neverConfirms.countDown();
+    }
+
+    @Test
+    public void closing_waits_for_queued_confirmations_and_rejects_new() throws Exception {
+        CountDownLatch sending = new CountDownLatch(1);
+        ConfirmationQueue queue = queue(confirmable -> {
+            try {
+                sending.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            confirmed.add(confirmable.getConfirmationReference().getConfirmationUrl());
+        }, Optional.empty());
+        CompletableFuture<Void> queued = queue.enqueue(confirmable("https://example.com/confirm/1"));
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sending.countDown();
+        }).start();
+        queue.close(Deadline.in(Duration.ofSeconds(5)));
+
+        assertThat(queued.isDone(), is(true));
+        assertThat(confirmed, contains("https://example.com/confirm/1"));
+        try {
+            queue.enqueue(confirmable("https://example.com/confirm/2")).get(5, SECONDS);
+            fail("Should not accept confirmations when closed");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(ClientClosedException.class));
+        }
+    }
+
+    @Test
+    public void closing_completes_confirmations_still_failing_with_client_closed() throws Exception {
+        ConfirmationQueue queue = queue(confirmable -> {
+            throw new ProcessingException("Connection refused");
+        }, Optional.empty());
+        CompletableFuture<Void> failing = queue.enqueue(confirmable("https://example.com/confirm/1"));
+
+        queue.close(Deadline.in(Duration.ofMillis(100)));
+
+        try {
+            failing.get(5, SECONDS);
+            fail("Should not have been confirmed");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(ClientClosedException.class));
+        }
+        assertThat(queue.pending(), is(1));
+    }
+
+
+    private static ConfirmationQueue queue(Consumer<Confirmable> confirm, Optional<Path> journal) {
+        return new ConfirmationQueue(confirm, 2, journal, Duration.ofMillis(10));
+    }
+
+    private static Confirmable confirmable(String url) {
+        return () -> ConfirmationReference.of(url);
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.HedgingPolicy;
+import no.digipost.signature.client.core.exceptions.SignatureException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static no.digipost.signature.client.core.Operation.DOWNLOAD;
+import static no.digipost.signature.client.core.Operation.STATUS;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class HedgerTest {
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private Hedger hedger;
+
+    @After
+    public void closeHedger() {
+        hedger.close();
+    }
+
+    @Test
+    public void sends_hedged_request_when_slow_and_uses_the_first_response() {
+        hedger = new Hedger(HedgingPolicy.builder().initialDelay(Duration.ofMillis(20)).maxExtraLoad(1).build());
+
+        long start = System.nanoTime();
+        String status = hedger.call(STATUS, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                sleep(5000);
+                return "first";
+            }
+            return "hedged";
+        });
+
+        assertThat(status, is("hedged"));
+        assertThat(attempts.get(), is(2));
+        assertThat(Duration.ofNanos(System.nanoTime() - start), lessThan(Duration.ofSeconds(2)));
+    }
+
+    @Test
+    public void does_not_send_hedged_request_exceeding_the_budget() {
+        hedger = new Hedger(HedgingPolicy.builder().initialDelay(Duration.ofMillis(10)).maxExtraLoad(0).build());
+
+        String status = hedger.call(STATUS, () -> {
+            attempts.incrementAndGet();
+            sleep(100);
+            return "slow";
+        });
+
+        assertThat(status, is("slow"));
+        assertThat(attempts.get(), is(1));
+    }
+
+    @Test
+    public void closes_the_discarded_response() throws InterruptedException {
+        hedger = new Hedger(HedgingPolicy.builder().initialDelay(Duration.ofMillis(20)).maxExtraLoad(1).build());
+        AtomicBoolean discardedIsClosed = new AtomicBoolean(false);
+
+        InputStream document = hedger.call(DOWNLOAD, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                long respondAt = System.nanoTime() + Duration.ofMillis(200).toNanos();
+                while (System.nanoTime() < respondAt) {
+                    sleep(10);
+                }
+                return new ByteArrayInputStream(new byte[0]) {
+                    @Override
+                    public void close() {
+                        discardedIsClosed.set(true);
+                    }
+                };
+            }
+            return new ByteArrayInputStream(new byte[] {42});
+        });
+
+        assertThat(attempts.get(), is(2));
+        for (int i = 0; i < 100 && !discardedIsClosed.get(); i++) {
+            Thread.sleep(20);
+        }
+        assertThat(discardedIsClosed.get(), is(true));
+    }
+
+    @Test
+    public void closes_responses_arriving_after_the_caller_is_interrupted() throws InterruptedException {
+        hedger = new Hedger(HedgingPolicy.builder().initialDelay(Duration.ofSeconds(5)).maxExtraLoad(1).build());
+        AtomicBoolean lateIsClosed = new AtomicBoolean(false);
+        Thread caller = Thread.currentThread();
+
+        try {
+            hedger.call(DOWNLOAD, () -> {
+                caller.interrupt();
+                sleep(100);
+                return new ByteArrayInputStream(new byte[0]) {
+                    @Override
+                    public void close() {
+                        lateIsClosed.set(true);
+                    }
+                };
+            });
+            fail("Should have been interrupted");
+        } catch (SignatureException e) {
+            assertThat(Thread.interrupted(), is(true));
+        }
+
+        for (int i = 0; i < 100 && !lateIsClosed.get(); i++) {
+            Thread.sleep(20);
+        }
+        assertThat(lateIsClosed.get(), is(true));
+    }
+
+    /**
+     * Sleep, ignoring interrupts from cancelling the request, as a blocking HTTP request does.
+     */
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            return;
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.api.xml.XMLDirectSignatureJobRequest;
+import no.digipost.signature.api.xml.XMLDirectSignatureJobResponse;
+import no.digipost.signature.api.xml.XMLExitUrls;
+import no.digipost.signature.api.xml.XMLSignerSpecificUrl;
+import no.digipost.signature.client.asice.DocumentBundle;
+import no.digipost.signature.client.core.Sender;
+import no.digipost.signature.client.core.exceptions.CircuitOpenException;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.ws.rs.ProcessingException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static no.digipost.signature.client.core.Operation.CREATE;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class JobOutboxTest {
+
+    @Rule
+    public final TemporaryFolder outboxFolder = new TemporaryFolder();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    private final AtomicInteger sent = new AtomicInteger();
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void persists_response_and_does_not_send_created_job_again() throws Exception {
+        JobOutbox<XMLDirectSignatureJobRequest, XMLDirectSignatureJobResponse> outbox = outbox((request, bundle, sender) -> response(sent.incrementAndGet()));
+
+        XMLDirectSignatureJobResponse created = outbox.submit("my-reference", request("my-reference"), JobOutboxTest::bundle, new Sender("123456789")).get(5, SECONDS);
+        XMLDirectSignatureJobResponse submittedAgain = outbox.submit("my-reference", request("my-reference"), JobOutboxTest::bundle, new Sender("123456789")).get(5, SECONDS);
+
+        assertThat(sent.get(), is(1));
+        assertThat(submittedAgain.getSignatureJobId(), is(created.getSignatureJobId()));
+        assertThat(outbox((request, bundle, sender) -> response(42)).getResponse("my-reference").get().getSignatureJobId(), is(1L));
+    }
+
+    @Test
+    public void retries_sending_on_transient_failure() throws Exception {
+        JobOutbox<XMLDirectSignatureJobRequest, XMLDirectSignatureJobResponse> outbox = outbox((request, bundle, sender) -> {
+            if (sent.incrementAndGet() == 1) {
+                throw new ProcessingException(new ConnectException("Connection refused"));
+            }
+            return response(sent.get());
+        });
+
+        XMLDirectSignatureJobResponse created = outbox.submit("my-reference", request("my-reference"), JobOutboxTest::bundle, new Sender("123456789")).get(5, SECONDS);
+
+        assertThat(sent.get(), is(2));
+        assertThat(created.getSignatureJobId(), is(2L));
+    }
+
+    @Test
+    public void does_not_resend_job_which_may_have_been_created() throws Exception {
+        JobOutbox<XMLDirectSignatureJobRequest, XMLDirectSignatureJobResponse> outbox = outbox((request, bundle, sender) -> {
+            sent.incrementAndGet();
+            throw new ProcessingException(new SocketTimeoutException("Read timed out"));
+        });
+
+        Throwable failure = outbox.submit("my-reference", request("my-reference"), JobOutboxTest::bundle, new Sender("123456789"))
+                .handle((response, e) -> e).get(5, SECONDS);
+
+        assertThat(failure, instanceOf(ProcessingException.class));
+        assertThat(sent.get(), is(1));
+        assertThat(outbox.getResponse("my-reference").isPresent(), is(false));
+        assertThat(outbox((request, bundle, sender) -> response(3)).resubmitPending().get("my-reference").get(5, SECONDS).getSignatureJobId(), is(3L));
+    }
+
+    @Test
+    public void keeps_job_pending_when_circuit_is_open() throws Exception {
+        JobOutbox<XMLDirectSignatureJobRequest, XMLDirectSignatureJobResponse> outbox = outbox((request, bundle, sender) -> {
+            throw new CircuitOpenException(CREATE, Duration.ofSeconds(30));
+        });
+
+        Throwable failure = outbox.submit("my-reference", request("my-reference"), JobOutboxTest::bundle, new Sender("123456789"))
+                .handle((response, e) -> e).get(5, SECONDS);
+
+        assertThat(failure, instanceOf(CircuitOpenException.class));
+        assertThat(outbox((request, bundle, sender) -> response(5)).resubmitPending().get("my-reference").get(5, SECONDS).getSignatureJobId(), is(5L));
+    }
+
+    @Test
+    public void resubmits_pending_jobs() throws Exception {
+        JobOutbox<XMLDirectSignatureJobRequest, XMLDirectSignatureJobResponse> failingOutbox = outbox((request, bundle, sender) -> {
+            throw new ProcessingException("Connection refused");
+        });
+        failingOutbox.submit("pending", request("pending"), JobOutboxTest::bundle, new Sender("123456789")).handle((response, failure) -> failure).get(5, SECONDS);
+
+        JobOutbox<XMLDirectSignatureJobRequest, XMLDirectSignatureJobResponse> outbox = outbox((request, bundle, sender) -> response(7));
+        XMLDirectSignatureJobResponse created = outbox.resubmitPending().get("pending").get(5, SECONDS);
+
+        assertThat(created.getSignatureJobId(), is(7L));
+        assertThat(outbox.resubmitPending().isEmpty(), is(true));
+    }
+
+    @Test
+    public void does_not_create_document_bundle_for_job_already_in_outbox() throws Exception {
+        AtomicInteger bundled = new AtomicInteger();
+        Supplier<DocumentBundle> countingBundle = () -> {
+            bundled.incrementAndGet();
+            return bundle();
+        };
+        JobOutbox<XMLDirectSignatureJobRequest, XMLDirectSignatureJobResponse> failingOutbox = outbox((request, bundle, sender) -> {
+            throw new ProcessingException("Connection refused");
+        });
+        failingOutbox.submit("pending", request("pending"), countingBundle, new Sender("123456789")).handle((response, failure) -> failure).get(5, SECONDS);
+        assertThat(bundled.get(), is(1));
+
+        JobOutbox<XMLDirectSignatureJobRequest, XMLDirectSignatureJobResponse> outbox = outbox((request, bundle, sender) -> response(7));
+        outbox.submit("pending", request("pending"), countingBundle, new Sender("123456789")).get(5, SECONDS);
+        outbox.submit("pending", request("pending"), countingBundle, new Sender("123456789")).get(5, SECONDS);
+
+        assertThat(bundled.get(), is(1));
+    }
+
+
+    private JobOutbox<XMLDirectSignatureJobRequest, XMLDirectSignatureJobResponse> outbox(JobOutbox.Sending<XMLDirectSignatureJobRequest, XMLDirectSignatureJobResponse> sending) {
+        return new JobOutbox<>(outboxFolder.getRoot().toPath(), XMLDirectSignatureJobRequest.class, XMLDirectSignatureJobResponse.class,
+                sending, executor, 2, Duration.ofMillis(10));
+    }
+
+    private static XMLDirectSignatureJobRequest request(String reference) {
+        return new XMLDirectSignatureJobRequest()
+                .withReference(reference)
+                .withExitUrls(new XMLExitUrls()
+                        .withCompletionUrl("https://example.com/completed")
+                        .withRejectionUrl("https://example.com/rejected")
+                        .withErrorUrl("https://example.com/failed"));
+    }
+
+    private static XMLDirectSignatureJobResponse response(long signatureJobId) {
+        return new XMLDirectSignatureJobResponse()
+                .withSignatureJobId(signatureJobId)
+                .withRedirectUrls(new XMLSignerSpecificUrl().withSigner("12345678910").withValue("https://example.com/redirect"))
+                .withStatusUrl("https://example.com/status");
+    }
+
+    private static DocumentBundle bundle() {
+        return new DocumentBundle("zipped bundle".getBytes());
+    }
+
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.api.xml.XMLDirectSignatureJobRequest;
+import no.digipost.signature.api.xml.XMLExitUrls;
+import no.digipost.signature.client.asice.DocumentBundle;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.jvnet.mimepull.MIMEMessage;
+import org.jvnet.mimepull.MIMEPart;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MultipartRequestBodyTest {
+
+    private final byte[] zippedBundle = "zipped bundle".getBytes(UTF_8);
+
+    private final MultipartRequestBody body = new MultipartRequestBody(new XMLDirectSignatureJobRequest()
+            .withReference("my-reference")
+            .withExitUrls(new XMLExitUrls()
+                    .withCompletionUrl("https://example.com/completed")
+                    .withRejectionUrl("https://example.com/rejected")
+                    .withErrorUrl("https://example.com/failed")),
+            new DocumentBundle(zippedBundle), false);
+
+    @Test
+    public void writes_exactly_the_content_length() throws Exception {
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        body.write(written);
+
+        assertThat((long) written.size(), is(body.getContentLength()));
+    }
+
+    @Test
+    public void writes_the_xml_request_and_document_bundle_as_multipart() throws Exception {
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        body.write(written);
+
+        MIMEMessage message = new MIMEMessage(new ByteArrayInputStream(written.toByteArray()), body.getMediaType().getParameters().get("boundary"));
+        List<MIMEPart> parts = message.getAttachments();
+
+        assertThat(parts, hasSize(2));
+        assertThat(parts.get(0).getContentType(), is("application/xml"));
+        assertThat(new String(IOUtils.toByteArray(parts.get(0).readOnce()), UTF_8), containsString("my-reference"));
+        assertThat(parts.get(1).getContentType(), is("application/octet-stream"));
+        assertThat(IOUtils.toByteArray(parts.get(1).readOnce()), is(zippedBundle));
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.RequestLimits;
+import no.digipost.signature.client.core.Sender;
+import no.digipost.signature.client.core.exceptions.DeadlineExceededException;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static no.digipost.signature.client.core.Operation.CREATE;
+import static no.digipost.signature.client.core.Operation.POLL;
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class RequestLimiterTest {
+
+    @Test
+    public void token_bucket_permits_burst_and_then_sustained_rate() {
+        TokenBucket bucket = new TokenBucket(10, 2);
+
+        assertThat(bucket.reserve(), is(0L));
+        assertThat(bucket.reserve(), is(0L));
+        assertThat(bucket.reserve(), both(greaterThan(MILLISECONDS.toNanos(50))).and(lessThanOrEqualTo(MILLISECONDS.toNanos(100))));
+        assertThat(bucket.reserve(), both(greaterThan(MILLISECONDS.toNanos(150))).and(lessThanOrEqualTo(MILLISECONDS.toNanos(200))));
+    }
+
+    @Test
+    public void concurrency_limit_increases_while_reached_and_halves_when_overloaded() throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 4);
+
+        for (int round = 0; round < 10; round++) {
+            int permitted = limit.getLimit();
+            for (int i = 0; i < permitted; i++) {
+                limit.acquire();
+            }
+            for (int i = 0; i < permitted; i++) {
+                limit.release(MILLISECONDS.toNanos(10), false);
+            }
+        }
+        assertThat(limit.getLimit(), is(4));
+
+        limit.acquire();
+        limit.release(MILLISECONDS.toNanos(10), true);
+        assertThat(limit.getLimit(), is(2));
+    }
+
+    @Test
+    public void concurrency_limit_decreases_when_response_time_indicates_queueing() throws InterruptedException {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 4);
+        limit.acquire();
+        limit.release(MILLISECONDS.toNanos(10), false);
+
+        limit.acquire();
+        limit.release(SECONDS.toNanos(1), false);
+
+        assertThat(limit.getLimit(), is(3));
+    }
+
+    @Test
+    public void limits_each_target_and_sender_separately() {
+        RequestLimits onePerSecond = RequestLimits.builder().maxRequestsPerSecond(1).adaptiveConcurrency(1, 1).build();
+        RequestLimiter limiter = new RequestLimiter(sender -> onePerSecond);
+
+        RequestLimiter.Permit permit = limiter.acquire(POLL, Target.DIRECT, new Sender("123456789"));
+        long started = System.nanoTime();
+        limiter.acquire(POLL, Target.PORTAL, new Sender("123456789")).release(false);
+        limiter.acquire(POLL, Target.DIRECT, new Sender("987654321")).release(false);
+        permit.release(false);
+
+        assertThat(System.nanoTime() - started, lessThanOrEqualTo(MILLISECONDS.toNanos(500)));
+    }
+
+    @Test
+    public void gives_up_waiting_for_permit_at_the_deadline() {
+        RequestLimiter limiter = new RequestLimiter(sender -> RequestLimits.builder().adaptiveConcurrency(1, 1).build());
+        Sender sender = new Sender("123456789");
+        RequestLimiter.Permit permit = limiter.acquire(CREATE, Target.DIRECT, sender);
+
+        try {
+            limiter.acquire(CREATE, Target.DIRECT, sender, Optional.of(Deadline.in(Duration.ofMillis(50))));
+            fail("Should not wait for permit beyond the deadline");
+        } catch (DeadlineExceededException e) {
+            permit.release(false);
+        }
+        limiter.acquire(CREATE, Target.DIRECT, sender, Optional.of(Deadline.in(Duration.ofMillis(50)))).release(false);
+    }
+
+    @Test
+    public void token_bucket_does_not_reserve_token_which_is_not_available_in_time() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1, 1);
+
+        assertThat(bucket.tryAcquire(0), is(true));
+        assertThat(bucket.tryAcquire(MILLISECONDS.toNanos(10)), is(false));
+        assertThat(bucket.reserve(), both(greaterThan(MILLISECONDS.toNanos(900))).and(lessThanOrEqualTo(SECONDS.toNanos(1))));
+    }
+
+    @Test
+    public void slow_job_creation_does_not_lower_the_limit_for_polling() throws InterruptedException {
+        RequestLimiter limiter = new RequestLimiter(sender -> RequestLimits.builder().adaptiveConcurrency(4, 4).build());
+        Sender sender = new Sender("123456789");
+
+        limiter.acquire(POLL, Target.DIRECT, sender).release(false);
+        limiter.acquire(CREATE, Target.DIRECT, sender).release(false);
+        RequestLimiter.Permit slowUpload = limiter.acquire(CREATE, Target.DIRECT, sender);
+        Thread.sleep(100);
+        slowUpload.release(false);
+
+        assertThat(limiter.getConcurrencyLimit(CREATE, Target.DIRECT, sender), is(3));
+        assertThat(limiter.getConcurrencyLimit(POLL, Target.DIRECT, sender), is(4));
+    }
+
+}
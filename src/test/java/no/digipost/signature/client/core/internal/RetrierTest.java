@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.RetryPolicy;
+import no.digipost.signature.client.core.RetryStatistics;
+import org.junit.Test;
+
+import javax.ws.rs.ProcessingException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static no.digipost.signature.client.core.Operation.CREATE;
+import static no.digipost.signature.client.core.Operation.STATUS;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class RetrierTest {
+
+    private final Retrier retrier = new Retrier(RetryPolicy.builder().maxAttempts(3).backoff(Duration.ZERO, Duration.ofMillis(1)).build());
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    @Test
+    public void retries_idempotent_operation_on_transient_failure() {
+        String status = retrier.call(STATUS, () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new ProcessingException(new SocketTimeoutException("Read timed out"));
+            }
+            return "status";
+        });
+
+        assertThat(status, is("status"));
+        RetryStatistics statistics = retrier.statistics(STATUS);
+        assertThat(statistics.getCalls(), is(1L));
+        assertThat(statistics.getRetries(), is(2L));
+        assertThat(statistics.getFailures(), is(0L));
+    }
+
+    @Test
+    public void does_not_retry_job_creation_which_may_have_been_processed() {
+        try {
+            retrier.call(CREATE, () -> {
+                attempts.incrementAndGet();
+                throw new ProcessingException(new SocketTimeoutException("Read timed out"));
+            });
+            fail("Should not retry creating job");
+        } catch (ProcessingException e) {
+            assertThat(attempts.get(), is(1));
+            assertThat(retrier.statistics(CREATE).getFailures(), is(1L));
+        }
+    }
+
+    @Test
+    public void retries_job_creation_when_unable_to_connect() {
+        String created = retrier.call(CREATE, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new ProcessingException(new ConnectException("Connection refused"));
+            }
+            return "created";
+        });
+
+        assertThat(created, is("created"));
+        assertThat(attempts.get(), is(2));
+    }
+
+    @Test
+    public void stops_retrying_when_retry_budget_is_exhausted() {
+        Retrier withoutBudget = new Retrier(RetryPolicy.builder().maxAttempts(2).backoff(Duration.ZERO, Duration.ZERO).retryBudget(0).build());
+        for (int i = 0; i < 20; i++) {
+            try {
+                withoutBudget.call(STATUS, () -> {
+                    throw new ProcessingException("Connection reset");
+                });
+            } catch (ProcessingException expected) {
+            }
+        }
+
+        RetryStatistics statistics = withoutBudget.statistics(STATUS);
+        assertThat(statistics.getRetries(), is(10L));
+        assertThat(statistics.getRetriesDeniedByBudget(), is(10L));
+        assertThat(statistics.getFailures(), is(20L));
+    }
+
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.ws.rs.ProcessingException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final CountDownLatch callInProgress = new CountDownLatch(1);
+
+    private final CountDownLatch allCallersWaiting = new CountDownLatch(1);
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrent_callers_share_one_call() throws Exception {
+        SingleFlight<String, String> statuses = new SingleFlight<>();
+
+        List<Future<String>> results = callConcurrently(3, () -> statuses.call("https://example.com/status/1", () -> {
+            calls.incrementAndGet();
+            awaitAllCallers();
+            return "status";
+        }));
+
+        for (Future<String> result : results) {
+            assertThat(result.get(5, SECONDS), is("status"));
+        }
+        assertThat(calls.get(), is(1));
+        assertThat(statuses.call("https://example.com/status/1", () -> "new call"), is("new call"));
+    }
+
+    @Test
+    public void concurrent_callers_get_their_own_stream_of_a_shared_download() throws Exception {
+        SingleFlight<String, SpooledDocument> downloads = new SingleFlight<>();
+
+        List<Future<byte[]>> documents = callConcurrently(3, () -> {
+            try (InputStream document = downloads.call("https://example.com/pades/1", () -> {
+                calls.incrementAndGet();
+                awaitAllCallers();
+                return SpooledDocument.spool(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+            }, SpooledDocument::open, SpooledDocument::release)) {
+                return IOUtils.toByteArray(document);
+            }
+        });
+
+        for (Future<byte[]> document : documents) {
+            assertThat(document.get(5, SECONDS), is(new byte[] {1, 2, 3}));
+        }
+        assertThat(calls.get(), is(1));
+    }
+
+    @Test
+    public void failure_is_shared_by_all_concurrent_callers() throws Exception {
+        SingleFlight<String, String> statuses = new SingleFlight<>();
+
+        List<Future<String>> results = callConcurrently(2, () -> statuses.call("https://example.com/status/1", () -> {
+            calls.incrementAndGet();
+            awaitAllCallers();
+            throw new ProcessingException("Connection reset");
+        }));
+
+        for (Future<String> result : results) {
+            try {
+                result.get(5, SECONDS);
+                fail("Should fail with the failure of the shared call");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(ProcessingException.class));
+            }
+        }
+        assertThat(calls.get(), is(1));
+    }
+
+
+    /**
+     * Start the first caller, and when its call is in progress, start the others. The call in progress
+     * is let through when the others have had time to join it.
+     */
+    private <T> List<Future<T>> callConcurrently(int callers, Callable<T> caller) throws InterruptedException {
+        List<Future<T>> results = new ArrayList<>();
+        results.add(executor.submit(caller));
+        callInProgress.await(5, SECONDS);
+        for (int i = 1; i < callers; i++) {
+            results.add(executor.submit(caller));
+        }
+        Thread.sleep(200);
+        allCallersWaiting.countDown();
+        return results;
+    }
+
+    private void awaitAllCallers() {
+        callInProgress.countDown();
+        try {
+            allCallersWaiting.await(5, SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
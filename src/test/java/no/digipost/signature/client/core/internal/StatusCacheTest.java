@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class StatusCacheTest {
+
+    private final StatusCache<String> cache = new StatusCache<>(2, Duration.ofMinutes(1), status -> "https://example.com/confirm/" + status);
+
+    @Test
+    public void evicts_least_recently_used_status() {
+        cache.put("https://example.com/status/1", "1", Optional.empty());
+        cache.put("https://example.com/status/2", "2", Optional.empty());
+        cache.get("https://example.com/status/1");
+        cache.put("https://example.com/status/3", "3", Optional.empty());
+
+        assertThat(cache.get("https://example.com/status/1").isPresent(), is(true));
+        assertThat(cache.get("https://example.com/status/2").isPresent(), is(false));
+        assertThat(cache.get("https://example.com/status/3").isPresent(), is(true));
+    }
+
+    @Test
+    public void invalidates_confirmed_status() {
+        cache.put("https://example.com/status/1", "1", Optional.of("\"etag-1\""));
+        cache.put("https://example.com/status/2", "2", Optional.empty());
+
+        cache.invalidateConfirmed("https://example.com/confirm/1");
+
+        assertThat(cache.get("https://example.com/status/1").isPresent(), is(false));
+        assertThat(cache.get("https://example.com/status/2").get().isFresh(), is(true));
+    }
+
+    @Test
+    public void revalidates_expired_status() throws InterruptedException {
+        StatusCache<String> shortLived = new StatusCache<>(2, Duration.ofMillis(10), status -> status);
+        shortLived.put("https://example.com/status/1", "1", Optional.of("\"etag-1\""));
+        Thread.sleep(20);
+
+        StatusCache.Entry<String> expired = shortLived.get("https://example.com/status/1").get();
+        assertThat(expired.isFresh(), is(false));
+        assertThat(expired.eTag, is(Optional.of("\"etag-1\"")));
+
+        shortLived.revalidated(expired);
+        assertThat(shortLived.get("https://example.com/status/1").get().isFresh(), is(true));
+    }
+
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal;
+
+import no.digipost.signature.client.core.exceptions.ClientClosedException;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class StatusChangePublisherTest {
+
+    private static final String NO_CHANGES = "no changes";
+
+    @Test
+    public void polls_only_while_there_is_demand_and_skips_no_changes() throws InterruptedException {
+        AtomicInteger polls = new AtomicInteger();
+        Iterator<String> statuses = asList("first", NO_CHANGES, "second", "third", "fourth").iterator();
+        Supplier<String> poll = () -> {
+            polls.incrementAndGet();
+            return statuses.next();
+        };
+
+        CollectingSubscriber subscriber = new CollectingSubscriber(2, 2);
+        new StatusChangePublisher<>(poll, NO_CHANGES::equals, Clock.systemUTC(), Duration.ZERO).subscribe(subscriber);
+
+        assertTrue(subscriber.received.await(5, SECONDS));
+        Thread.sleep(200);
+        assertThat(subscriber.statuses, contains("first", "second"));
+        assertThat(polls.get(), is(3));
+        subscriber.subscription.get().cancel();
+    }
+
+    @Test
+    public void terminates_with_error_when_polling_fails() throws InterruptedException {
+        CollectingSubscriber subscriber = new CollectingSubscriber(1, 1);
+        new StatusChangePublisher<String>(() -> { throw new IllegalStateException("failed"); }, NO_CHANGES::equals, Clock.systemUTC()).subscribe(subscriber);
+
+        assertTrue(subscriber.received.await(5, SECONDS));
+        assertThat(subscriber.error.get(), instanceOf(IllegalStateException.class));
+    }
+
+    @Test
+    public void completes_subscriptions_when_closed() throws InterruptedException {
+        CollectingSubscriber subscriber = new CollectingSubscriber(1, 1);
+        StatusChangePublisher<String> publisher = new StatusChangePublisher<>(() -> NO_CHANGES, NO_CHANGES::equals, Clock.systemUTC());
+        publisher.subscribe(subscriber);
+
+        publisher.close(Deadline.in(Duration.ofSeconds(5)));
+
+        assertTrue(subscriber.completed.await(5, SECONDS));
+        CollectingSubscriber subscribedWhenClosed = new CollectingSubscriber(1, 1);
+        publisher.subscribe(subscribedWhenClosed);
+        assertThat(subscribedWhenClosed.error.get(), instanceOf(ClientClosedException.class));
+    }
+
+
+    private static final class CollectingSubscriber implements Subscriber<String> {
+
+        final List<String> statuses = new ArrayList<>();
+        final AtomicReference<Subscription> subscription = new AtomicReference<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final CountDownLatch received;
+        final CountDownLatch completed = new CountDownLatch(1);
+        final long initialDemand;
+
+        CollectingSubscriber(long initialDemand, int expectedSignals) {
+            this.initialDemand = initialDemand;
+            this.received = new CountDownLatch(expectedSignals);
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription.set(s);
+            s.request(initialDemand);
+        }
+
+        @Override
+        public synchronized void onNext(String status) {
+            statuses.add(status);
+            received.countDown();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error.set(t);
+            received.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal.http;
+
+import no.digipost.signature.client.ClientConfiguration;
+import org.junit.Test;
+
+import static no.digipost.signature.client.TestKonfigurasjon.CLIENT_KEYSTORE;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class SignatureHttpClientFactoryTest {
+
+    private final SignatureHttpClient httpClient = SignatureHttpClientFactory.create(ClientConfiguration.builder(CLIENT_KEYSTORE).build());
+
+    @Test
+    public void shared_client_is_usable_after_the_original_reference_is_closed() {
+        SignatureHttpClient shared = httpClient.share();
+        httpClient.close();
+
+        assertThat(shared.target("https://example.com/status").getUri().getHost(), is("example.com"));
+        shared.close();
+    }
+
+    @Test
+    public void closed_reference_can_not_be_used() {
+        httpClient.close();
+        httpClient.close();
+
+        try {
+            httpClient.signatureServiceRoot();
+            fail("Should not be able to use a closed reference");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), containsString("closed"));
+        }
+    }
+
+    @Test
+    public void can_not_share_client_when_all_references_are_closed() {
+        SignatureHttpClient shared = httpClient.share();
+        shared.close();
+        httpClient.close();
+
+        try {
+            shared.share();
+            fail("Should not be able to share a closed client");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), containsString("closed"));
+        }
+    }
+
+}
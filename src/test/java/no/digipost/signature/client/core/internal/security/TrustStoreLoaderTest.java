@@ -18,17 +18,27 @@ package no.digipost.signature.client.core.internal.security;
 import no.digipost.signature.client.ClientConfiguration;
 import no.digipost.signature.client.TestKonfigurasjon;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertSame;
 import static no.digipost.signature.client.Certificates.PRODUCTION;
 import static no.digipost.signature.client.Certificates.TEST;
 
 public class TrustStoreLoaderTest {
 
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private ClientConfiguration.Builder configBuilder;
 
     @Before
@@ -72,5 +82,25 @@ public class TrustStoreLoaderTest {
         assertEquals(1, keyStore.size());
     }
 
+    @Test
+    public void reuses_parsed_certificates_for_the_same_certificate_path() throws KeyStoreException {
+        KeyStore keyStore = TrustStoreLoader.build(configBuilder.trustStore(TEST).build());
+        KeyStore otherKeyStore = TrustStoreLoader.build(configBuilder.trustStore(TEST).build());
+
+        assertNotSame(keyStore, otherKeyStore);
+        assertSame(keyStore.getCertificate("buypass_class_3_test4_root_ca.cer"), otherKeyStore.getCertificate("buypass_class_3_test4_root_ca.cer"));
+    }
+
+    @Test
+    public void reads_certificates_added_to_folder_since_last_trust_store_was_built() throws Exception {
+        Path folder = temporaryFolder.getRoot().toPath();
+        Path certificate = Paths.get("./src/test/files/certificateTest").toFile().listFiles()[0].toPath();
+        Files.copy(certificate, folder.resolve("first.cer"));
+        assertEquals(1, TrustStoreLoader.build(configBuilder.trustStore(folder.toString()).build()).size());
+
+        Files.copy(certificate, folder.resolve("second.cer"));
+        assertEquals(2, TrustStoreLoader.build(configBuilder.trustStore(folder.toString()).build()).size());
+    }
+
 
 }
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.core.internal.xml;
+
+import no.digipost.signature.api.xml.XMLDirectSignatureJobRequest;
+import no.digipost.signature.api.xml.XMLExitUrls;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class MarshallingTest {
+
+    @Test
+    public void marshals_the_same_xml_with_and_without_validation() {
+        XMLDirectSignatureJobRequest request = new XMLDirectSignatureJobRequest()
+                .withReference("my-reference")
+                .withExitUrls(new XMLExitUrls()
+                        .withCompletionUrl("https://example.com/completed")
+                        .withRejectionUrl("https://example.com/rejected")
+                        .withErrorUrl("https://example.com/failed"));
+
+        assertThat(marshal(request, false), is(marshal(request, true)));
+    }
+
+    @Test
+    public void validates_only_when_requested() {
+        XMLDirectSignatureJobRequest invalidRequest = new XMLDirectSignatureJobRequest().withReference("my-reference");
+
+        assertThat(marshal(invalidRequest, false), containsString("my-reference"));
+        try {
+            marshal(invalidRequest, true);
+            fail("Should not marshal request without exit URLs when validating");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage(), containsString("exit-urls"));
+        }
+    }
+
+    private static String marshal(Object request, boolean validate) {
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        Marshalling.marshal(request, xml, validate);
+        return new String(xml.toByteArray(), UTF_8);
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) Posten Norge AS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package no.digipost.signature.client.direct;
+
+import no.digipost.signature.client.core.ConfirmationReference;
+import no.digipost.signature.client.core.JobState;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static no.digipost.signature.client.direct.DirectJobStatus.COMPLETED_SUCCESSFULLY;
+import static no.digipost.signature.client.direct.DirectJobStatus.IN_PROGRESS;
+import static no.digipost.signature.client.direct.DirectJobStatusResponse.NO_UPDATED_STATUS;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DirectJobStatusStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Instant now = Instant.parse("2018-01-20T12:00:00Z");
+
+    @Test
+    public void detects_duplicate_statuses() throws Exception {
+        try (DirectJobStatusStore store = new DirectJobStatusStore(folder.getRoot().toPath().resolve("jobs"), Clock.fixed(now, ZoneOffset.UTC))) {
+            assertThat(store.record(status(1, IN_PROGRESS, SignerStatus.WAITING)), is(true));
+            assertThat(store.record(status(1, IN_PROGRESS, SignerStatus.WAITING)), is(false));
+            assertThat(store.record(status(1, IN_PROGRESS, SignerStatus.SIGNED)), is(true));
+            assertThat(store.record(status(1, COMPLETED_SUCCESSFULLY, SignerStatus.SIGNED)), is(true));
+            assertThat(store.record(NO_UPDATED_STATUS), is(false));
+
+            JobState<DirectJobStatus> state = store.get(1).get();
+            assertThat(state.getStatus(), is(COMPLETED_SUCCESSFULLY));
+            assertThat(state.getSigned(), is(2));
+            assertThat(state.getSigners(), is(2));
+        }
+    }
+
+    @Test
+    public void tracks_confirmations_and_age_across_reopening() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("jobs");
+        try (DirectJobStatusStore store = new DirectJobStatusStore(file, Clock.fixed(now.minus(Duration.ofDays(10)), ZoneOffset.UTC))) {
+            store.record(status(1, IN_PROGRESS, SignerStatus.WAITING));
+            store.record(status(2, IN_PROGRESS, SignerStatus.WAITING));
+            store.confirmed(status(2, IN_PROGRESS, SignerStatus.WAITING));
+        }
+        try (DirectJobStatusStore store = new DirectJobStatusStore(file, Clock.fixed(now, ZoneOffset.UTC))) {
+            store.record(status(3, IN_PROGRESS, SignerStatus.WAITING));
+
+            assertThat(store.size(), is(3));
+            assertThat(store.getAwaitingConfirmation().stream().map(JobState::getSignatureJobId).collect(toList()), contains(1L, 3L));
+            assertThat(store.getInProgressOlderThan(Duration.ofDays(7)).stream().map(JobState::getSignatureJobId).collect(toList()), contains(1L, 2L));
+            assertThat(store.getInProgressOlderThan(Duration.ofDays(30)), empty());
+        }
+    }
+
+    private static DirectJobStatusResponse status(long jobId, DirectJobStatus status, SignerStatus secondSignerStatus) {
+        return new DirectJobStatusResponse(jobId, status, ConfirmationReference.of("https://example.com/confirm/" + jobId),
+                asList(new Signature("12345678910", SignerStatus.SIGNED, null, null), new Signature("10987654321", secondSignerStatus, null, null)),
+                null);
+    }
+
+}